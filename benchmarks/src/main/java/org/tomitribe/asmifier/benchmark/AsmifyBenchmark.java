@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tomitribe.asmifier.Asmifier;
+import org.tomitribe.asmifier.Bytecode;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a single class to ASM code.
+ *
+ * The classes come from the ASM jar asmify depends on, so they only change
+ * when that dependency is upgraded: Handle is about 2kb, ClassWriter 17kb
+ * and ClassReader 45kb.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsmifyBenchmark {
+
+    @Param({"org.objectweb.asm.Handle", "org.objectweb.asm.ClassWriter", "org.objectweb.asm.ClassReader"})
+    public String className;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Bytecode.readClassFile(AsmifyBenchmark.class.getClassLoader(), className);
+    }
+
+    @Benchmark
+    public String asmify() throws IOException {
+        return Asmifier.asmify(bytes);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier.benchmark;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tomitribe.asmifier.Bytecode;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing alone, without printing anything, to tell the cost of reading
+ * a class apart from the cost of asmifying it.  Every method body is
+ * visited so the code attributes are fully decoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassReaderBenchmark {
+
+    @Param({"org.objectweb.asm.Handle", "org.objectweb.asm.ClassWriter", "org.objectweb.asm.ClassReader"})
+    public String className;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = Bytecode.readClassFile(ClassReaderBenchmark.class.getClassLoader(), className);
+    }
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) {
+        new ClassReader(bytes).accept(new Counter(blackhole), 0);
+    }
+
+    @Benchmark
+    public void parseSkipDebug(final Blackhole blackhole) {
+        new ClassReader(bytes).accept(new Counter(blackhole), ClassReader.SKIP_DEBUG);
+    }
+
+    private static class Counter extends ClassVisitor {
+        private final Blackhole blackhole;
+
+        Counter(final Blackhole blackhole) {
+            super(Opcodes.ASM9);
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                         final String signature, final String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM9) {
+                @Override
+                public void visitInsn(final int opcode) {
+                    blackhole.consume(opcode);
+                }
+
+                @Override
+                public void visitMethodInsn(final int opcode, final String owner, final String name,
+                                            final String descriptor, final boolean isInterface) {
+                    blackhole.consume(name);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tomitribe.asmifier.AsmifierCommand;
+import org.tomitribe.asmifier.CacheOptions;
+import org.tomitribe.asmifier.FilterOptions;
+import org.tomitribe.asmifier.Format;
+import org.tomitribe.asmifier.OutputOptions;
+import org.tomitribe.asmifier.StatsOptions;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.Size;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The jdk command on java.base of the running JDK.
+ *
+ * Several thousand classes of every shape and size, from tiny interfaces
+ * to the character set tables, read from the runtime image so there is
+ * no input to prepare.  It measures the throughput of the whole pipeline
+ * on a realistic corpus rather than the cost of a single class, and of
+ * each format against the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JdkBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean archive;
+
+    @Param({"asmifier", "textifier", "json"})
+    public Format format;
+
+    private File output;
+
+    @Setup
+    public void setup() {
+        output = Files.tmpdir();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Files.remove(output);
+    }
+
+    @Benchmark
+    public void jdk() throws Exception {
+        new AsmifierCommand().jdk(new AsmifierCommand.Directory(output), new String[]{"java.base"}, null, threads,
+                new CacheOptions(null, new Size("1gb"), false),
+                new FilterOptions(null, null, null, null, null, null, null, false, false, false),
+                new StatsOptions(false, null, 10),
+                new OutputOptions(archive, -1, false, format));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier.benchmark;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.util.ASMifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tomitribe.asmifier.AsmifierCommand;
+import org.tomitribe.asmifier.CacheOptions;
+import org.tomitribe.asmifier.FilterOptions;
+import org.tomitribe.asmifier.Format;
+import org.tomitribe.asmifier.OutputOptions;
+import org.tomitribe.asmifier.StatsOptions;
+import org.tomitribe.util.Archive;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+import org.tomitribe.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The whole zip command on a synthetic war.
+ *
+ * The war holds the classes of asm-util under WEB-INF/classes and the
+ * asm, asm-tree and tomitribe-util jars under WEB-INF/lib, a little over
+ * 300 classes in all, taken from the classpath so the input only changes
+ * when those dependencies are upgraded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ZipBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean archive;
+
+    private File war;
+    private File output;
+
+    @Setup
+    public void setup() throws Exception {
+        final Archive archive = Archive.archive();
+
+        try (final ZipFile util = new ZipFile(jar(ASMifier.class))) {
+            final Enumeration<? extends ZipEntry> entries = util.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) continue;
+                archive.add("WEB-INF/classes/" + entry.getName(), IO.readBytes(util.getInputStream(entry)));
+            }
+        }
+
+        for (final Class<?> clazz : new Class<?>[]{ClassReader.class, ClassNode.class, IO.class}) {
+            final File jar = jar(clazz);
+            archive.add("WEB-INF/lib/" + jar.getName(), IO.readBytes(jar));
+        }
+
+        war = archive.toJar(new File(Files.tmpdir(), "synthetic.war"));
+        output = Files.tmpdir();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Files.remove(war.getParentFile());
+        Files.remove(output);
+    }
+
+    @Benchmark
+    public void zip() throws Exception {
+        new AsmifierCommand().zip(war, new AsmifierCommand.Directory(output), threads, new Size("128mb"),
+                false, false,
+                new CacheOptions(null, new Size("1gb"), false),
+                new FilterOptions(null, null, null, null, null, null, null, false, false, false),
+                new StatsOptions(false, null, 10),
+                new OutputOptions(archive, -1, false, Format.asmifier));
+    }
+
+    private static File jar(final Class<?> clazz) throws IOException {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (final URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
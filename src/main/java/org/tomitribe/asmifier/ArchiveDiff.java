@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipException;
+
+/**
+ * Compares two versions of an archive and writes a unified diff of the
+ * asmified output of the classes that changed.
+ *
+ * Entries are paired by name, descending into nested archives that exist
+ * on both sides.  A pair with the same CRC-32 and size in the central
+ * directories is skipped without being read, so only the changed classes
+ * are ever inflated and asmified.  Changed resources and nested archives
+ * that could not be opened are reported by name only.
+ */
+public class ArchiveDiff {
+
+    private final Writer out;
+    private final int context;
+    private Filter entries = Filter.ALL;
+    private Filter nested = Filter.ALL;
+    private Selector selector = Selector.ALL;
+    private int changed;
+
+    /**
+     * @param context how many unchanged lines to show around each change
+     */
+    public ArchiveDiff(final Writer out, final int context) {
+        this.out = out;
+        this.context = context;
+    }
+
+    /**
+     * Only compare the class and resource entries accepted by the filter
+     */
+    public ArchiveDiff entries(final Filter entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    /**
+     * Only descend into the nested archives accepted by the filter
+     */
+    public ArchiveDiff nested(final Filter nested) {
+        this.nested = nested;
+        return this;
+    }
+
+    /**
+     * Only compare the selected classes and only their selected fields and methods
+     */
+    public ArchiveDiff selector(final Selector selector) {
+        this.selector = selector;
+        return this;
+    }
+
+    /**
+     * @return how many entries differed
+     */
+    public int diff(final File before, final File after) throws IOException {
+        try (final CentralDirectory a = CentralDirectory.open(before);
+             final CentralDirectory b = CentralDirectory.open(after)) {
+            diff(a, b, "");
+        }
+        out.flush();
+        return changed;
+    }
+
+    /**
+     * @param a the old archive or null if it did not exist
+     * @param b the new archive or null if it does not exist
+     */
+    private void diff(final CentralDirectory a, final CentralDirectory b, final String prefix) throws IOException {
+        final Map<String, CentralDirectory.Entry> before = index(a);
+        final Map<String, CentralDirectory.Entry> after = index(b);
+
+        final TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+
+        for (final String name : names) {
+            final CentralDirectory.Entry old = before.get(name);
+            final CentralDirectory.Entry current = after.get(name);
+
+            if (old != null && current != null
+                    && old.getCrc() == current.getCrc() && old.getSize() == current.getSize()) continue;
+
+            final String path = prefix + name;
+
+            if (name.endsWith(".class")) {
+
+                final List<String> lines = lines(a, old);
+                final List<String> other = lines(b, current);
+                if (lines.equals(other)) continue;
+
+                changed++;
+                UnifiedDiff.write(out,
+                        old != null ? "a/" + path + ".asm" : "/dev/null",
+                        current != null ? "b/" + path + ".asm" : "/dev/null",
+                        lines, other, context);
+
+            } else if (Is.Zip.accept(name)) {
+
+                try (final CentralDirectory x = open(a, old);
+                     final CentralDirectory y = open(b, current)) {
+                    diff(x, y, path + "/");
+                } catch (final ZipException e) {
+                    changed(old, current, path);
+                }
+
+            } else {
+                changed(old, current, path);
+            }
+        }
+    }
+
+    private void changed(final CentralDirectory.Entry old, final CentralDirectory.Entry current, final String path) throws IOException {
+        changed++;
+        if (old == null) {
+            out.write("Only in b: " + path + "\n");
+        } else if (current == null) {
+            out.write("Only in a: " + path + "\n");
+        } else {
+            out.write("Files a/" + path + " and b/" + path + " differ\n");
+        }
+    }
+
+    private Map<String, CentralDirectory.Entry> index(final CentralDirectory directory) {
+        final Map<String, CentralDirectory.Entry> index = new TreeMap<>();
+        if (directory == null) return index;
+
+        for (final CentralDirectory.Entry entry : directory.entries()) {
+            final String name = entry.getName();
+            if (entry.isDirectory()) continue;
+            if (Is.Zip.accept(name) ? !nested.accept(name) : !entries.accept(name)) continue;
+            if (name.endsWith(".class") && !selector.accept(name)) continue;
+
+            // A zip may list the same name twice, keep the first
+            index.putIfAbsent(name, entry);
+        }
+        return index;
+    }
+
+    private List<String> lines(final CentralDirectory directory, final CentralDirectory.Entry entry) throws IOException {
+        if (entry == null) return Collections.emptyList();
+        return UnifiedDiff.lines(Asmifier.asmify(directory.read(entry), selector));
+    }
+
+    private static CentralDirectory open(final CentralDirectory directory, final CentralDirectory.Entry entry) throws IOException {
+        if (entry == null) return null;
+        final byte[] bytes = directory.read(entry);
+        return CentralDirectory.open(bytes, bytes.length);
+    }
+}
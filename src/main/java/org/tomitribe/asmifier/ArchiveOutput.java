@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes every entry into a single zip archive.
+ *
+ * Creating one small file per class is what dominates the run on network
+ * file systems, an archive is a single file however large the tree.
+ *
+ * Entries are written in the order they were reserved, see {@link OrderedOutput}.
+ * Every entry carries the same timestamp, running twice over the same input
+ * produces the same bytes.
+ *
+ * An archive file is written under a temporary name next to it and only
+ * renamed once complete.  A failed run never ends the archive with its
+ * central directory, so it is never mistaken for a complete one.
+ */
+public class ArchiveOutput extends OrderedOutput {
+
+    /**
+     * The earliest time a zip entry can hold without an extra field
+     */
+    private static final long TIME = LocalDateTime.of(1980, 1, 1, 0, 0)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private final OutputStream stream;
+    private final ZipOutputStream out;
+    private final boolean stored;
+    private final File file;
+
+    /**
+     * @param file the archive to create
+     * @param level the deflate level from 1 to 9, 0 to store the entries uncompressed or -1 for the default level
+     * @param window how many finished entries may wait for the ones before them
+     */
+    public ArchiveOutput(final File file, final int level, final int window) throws IOException {
+        this(IO.write(tmp(check(file, level))), level, window, file);
+    }
+
+    /**
+     * @param out where the archive is streamed, closed with this output
+     * @param level the deflate level from 1 to 9, 0 to store the entries uncompressed or -1 for the default level
+     * @param window how many finished entries may wait for the ones before them
+     */
+    public ArchiveOutput(final OutputStream out, final int level, final int window) {
+        this(out, level, window, null);
+    }
+
+    private ArchiveOutput(final OutputStream out, final int level, final int window, final File file) {
+        super(window);
+        check(null, level);
+
+        this.stream = out;
+        this.out = new ZipOutputStream(out);
+        this.stored = level == Deflater.NO_COMPRESSION;
+        this.file = file;
+
+        if (!stored) this.out.setLevel(level);
+    }
+
+    /**
+     * Checks the level before the file is created
+     */
+    private static File check(final File file, final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + level);
+        }
+        return file;
+    }
+
+    private static File tmp(final File file) {
+        return new File(file.getParentFile(), "." + file.getName() + ".asmify-tmp");
+    }
+
+    @Override
+    protected void write(final String path, final byte[] bytes, final boolean asmified) throws IOException {
+        final CRC32 crc = new CRC32();
+        if (stored) crc.update(bytes, 0, bytes.length);
+
+        out.putNextEntry(entry(path, crc.getValue(), bytes.length));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    /**
+     * A stored entry records its CRC-32 and size before its data,
+     * so it can only be streamed when both are known
+     */
+    @Override
+    protected boolean streams(final long crc, final long size) {
+        return !stored || crc != -1 && size >= 0;
+    }
+
+    @Override
+    protected void write(final String path, final InputStream in, final long crc, final long size) throws IOException {
+        out.putNextEntry(entry(path, crc, size));
+        IO.copy(in, out);
+        out.closeEntry();
+    }
+
+    private ZipEntry entry(final String path, final long crc, final long size) {
+        final ZipEntry entry = new ZipEntry(path);
+        entry.setTime(TIME);
+
+        if (stored) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+        }
+
+        return entry;
+    }
+
+    @Override
+    protected void finish(final boolean failed) throws IOException {
+        if (failed) {
+            stream.close();
+            if (file != null) Files.deleteIfExists(tmp(file).toPath());
+            return;
+        }
+
+        out.close();
+        if (file != null) {
+            Files.move(tmp(file).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
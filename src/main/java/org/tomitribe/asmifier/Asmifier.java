@@ -14,18 +14,21 @@
 package org.tomitribe.asmifier;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.util.ASMifier;
-import org.objectweb.asm.util.TraceClassVisitor;
-import org.tomitribe.util.Hex;
 import org.tomitribe.util.IO;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -38,16 +41,24 @@ public class Asmifier {
     private Asmifier() {
     }
 
-    static {
+    /**
+     * Located on first use rather than when the class is loaded, so the
+     * commands that never write there run without a writable temporary directory
+     */
+    private static File tmpDir() {
+        final File dir = tmpDir.get();
+        if (dir != null) return dir;
+
         try {
             final File asmifier = File.createTempFile("Asmifier", null);
-            tmpDir.set(asmifier.getParentFile());
+            tmpDir.compareAndSet(null, asmifier.getParentFile());
             if (!asmifier.delete()) {
                 asmifier.deleteOnExit();
             }
         } catch (final IOException e) {
             throw new RuntimeException("Asmifier failed to locate a temporary directory");
         }
+        return tmpDir.get();
     }
 
     public static void hex(final ClassLoader classLoader, final String className) throws IOException {
@@ -58,11 +69,11 @@ public class Asmifier {
             throw new IOException("Failed to find resource: " + internalName);
         }
         System.out.println(className);
-        final InputStream inputStream = resource.openStream();
-        byte[] bytes = IO.readBytes(inputStream);
-        for (final byte b : bytes) {
-            System.out.printf("%-2s %-2s%n", Hex.toString(new byte[]{b}), (char) b);
+        final byte[] bytes;
+        try (final InputStream inputStream = resource.openStream()) {
+            bytes = IO.readBytes(inputStream);
         }
+        new HexDump(System.out).dump(bytes);
     }
 
     public static void print(final ClassLoader classLoader, final String className) throws IOException {
@@ -76,20 +87,92 @@ public class Asmifier {
         final ClassReader reader = new ClassReader(resource.openStream());
 
 
-        final File file = new File("/tmp/" + className);
+        final File file = new File(tmpDir(), className);
 
         write(reader, file);
     }
 
     private static void write(final ClassReader reader, final File file) throws IOException {
-        final OutputStream write = IO.write(file);
-        write(reader, write);
+        write(reader, file.toPath(), Selector.ALL, null);
     }
 
+    /**
+     * Writes the asmified class to the stream as UTF-8 and closes the stream
+     */
     public static void write(final ClassReader reader, final OutputStream write) throws IOException {
-        final TraceClassVisitor visitor = new TraceClassVisitor(null, new ASMifier(), new PrintWriter(write));
-        reader.accept(visitor, ClassReader.SKIP_DEBUG);
-        write.close();
+        try (final Writer writer = new OutputStreamWriter(write, StandardCharsets.UTF_8)) {
+            write(reader, writer, Selector.ALL, null);
+        }
+    }
+
+    /**
+     * Writes the selected fields and methods of the class to the file,
+     * taking the output from the cache when the same class was converted
+     * before and adding it otherwise
+     *
+     * @param cache the cache to consult, may be null.  Its settings must include the selector.
+     * @param stats where to record the timings, may be null
+     */
+    public static void write(final byte[] bytes, final Path path, final Selector selector, final Cache cache, final Stats stats) throws IOException {
+        if (cache == null) {
+            write(new ClassReader(bytes), path, selector, stats);
+            return;
+        }
+
+        final String key = cache.key(bytes);
+        final long start = System.nanoTime();
+        if (cache.get(key, path)) {
+            if (stats != null) {
+                stats.cached();
+                stats.add(Stats.Phase.WRITE, System.nanoTime() - start);
+            }
+            return;
+        }
+
+        write(new ClassReader(bytes), path, selector, stats);
+        cache.put(key, path);
+    }
+
+    /**
+     * Streams the asmified class to the file as UTF-8, replacing any existing file.
+     *
+     * The existing file is deleted rather than truncated as it may be a
+     * hardlink into a {@link Cache}.
+     */
+    private static void write(final ClassReader reader, final Path path, final Selector selector, final Stats stats) throws IOException {
+        final long start = System.nanoTime();
+        Files.deleteIfExists(path);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             final ChannelWriter writer = ChannelWriter.of(channel)) {
+            if (stats != null) stats.add(Stats.Phase.WRITE, System.nanoTime() - start);
+            write(reader, writer, selector, stats);
+        }
+    }
+
+    /**
+     * Streams the selected fields and methods of the class to the writer as
+     * they are read.  The writer is flushed but left open.
+     *
+     * The selector sits in front of the printer, so the code of the
+     * methods it drops is skipped by the reader and never printed.
+     * The output is in the {@link Format} of the selector, by default that of
+     * {@link org.objectweb.asm.util.ASMifier} written by an {@link AsmifierPrinter}.
+     *
+     * Parsing and asmifying happen in the same pass, so both count as
+     * asmifying.  Only flushing the writer counts as writing.
+     *
+     * @param stats where to record the timings, may be null
+     */
+    public static void write(final ClassReader reader, final Writer writer, final Selector selector, final Stats stats) throws IOException {
+        final long start = System.nanoTime();
+        selector.getFormat().write(visitor -> reader.accept(selector.filter(visitor), selector.getFlags()), writer);
+        final long asmified = System.nanoTime();
+
+        writer.flush();
+        if (stats != null) {
+            stats.add(Stats.Phase.ASMIFY, asmified - start);
+            stats.add(Stats.Phase.WRITE, System.nanoTime() - asmified);
+        }
     }
 
     public static void asmify(final Class clazz, final String suffix) throws IOException {
@@ -102,14 +185,25 @@ public class Asmifier {
 
     public static void asmify(final String className, final byte[] bytes, final String suffix) throws IOException {
         final ClassReader reader = new ClassReader(bytes);
-        final File file = new File(tmpDir.get(), className + "." + suffix);
+        final File file = new File(tmpDir(), className + "." + suffix);
 
         write(reader, file);
     }
 
     public static String asmify(final byte[] actualBytes) throws IOException {
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        write(new ClassReader(actualBytes), byteArrayOutputStream);
-        return new String(byteArrayOutputStream.toByteArray());
+        return asmify(actualBytes, Selector.ALL);
+    }
+
+    /**
+     * @param flags the {@link ClassReader} parsing options, such as {@link ClassReader#SKIP_CODE}
+     */
+    public static String asmify(final byte[] actualBytes, final int flags) throws IOException {
+        return asmify(actualBytes, new Selector(null, null, null, flags));
+    }
+
+    public static String asmify(final byte[] actualBytes, final Selector selector) throws IOException {
+        final StringWriter writer = new StringWriter();
+        write(new ClassReader(actualBytes), writer, selector, null);
+        return writer.toString();
     }
 }
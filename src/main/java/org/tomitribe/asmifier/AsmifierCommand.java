@@ -13,15 +13,33 @@
  */
 package org.tomitribe.asmifier;
 
+import org.objectweb.asm.ClassReader;
 import org.tomitribe.crest.api.Command;
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.StreamingOutput;
+import org.tomitribe.crest.environments.Environment;
+import org.tomitribe.util.Duration;
 import org.tomitribe.util.Files;
 import org.tomitribe.util.IO;
+import org.tomitribe.util.Size;
+import org.tomitribe.util.SizeUnit;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
 
 public class AsmifierCommand {
 
@@ -42,12 +60,36 @@ public class AsmifierCommand {
      * created by the Groovy, Scala, Kotlin and similar compilers.  Similarly, one Java source file can result in
      * several class files.  It is not the goal of this tool to attempt to erase or hide the class files.
      *
+     * OPTIONS
+     *
+     *  - class: Only output the class if its name matches.  May be repeated.  A dotted name such as
+     *    org.example.Parser or org.example.*Parser matches the full name, a simple name such as Parser
+     *    or *Parser matches in any package.
+     *  - field: Only output the fields with this name, or name followed by descriptor such as countI.
+     *    May be repeated and may use * and ? wildcards.
+     *  - method: Only output the methods with this name, or name and descriptor such as
+     *    parse(Ljava/lang/String;)V.  May be repeated and may use * and ? wildcards.
+     *  - structure-only: Skip the code of every method, leaving the class header, annotations, fields
+     *    and method signatures.
+     *  - skip-frames: Skip the stack map frames of the code.
+     *  - keep-debug: Keep the source file, line numbers and local variable names, which are skipped by default.
+     *  - format: The form of the class.  asmifier writes the Java code creating the class with ASM, textifier
+     *    the disassembled class much as javap prints it, a fraction of the size, and json one line with its
+     *    members and instructions for scripts and jq.
+     *
+     * Methods and fields that are not selected are skipped while the class is read, so selecting one
+     * method of a huge generated class takes next to no time.
+     *
      * EXAMPLE
      *
      * To view the asmified output of a class file in the target directory of a Maven build
      *
      *     asmify class target/classes/org/example/colors/Orange.class
      *
+     * To only view the constructors of the class
+     *
+     *     asmify class --method='<init>' target/classes/org/example/colors/Orange.class
+     *
      * RELATED
      *
      * To process an entire zip file
@@ -55,10 +97,83 @@ public class AsmifierCommand {
      *     asmify zip target/myapp.war /tmp/foo
      *
      * @param file path to a class file to parse and output as ASM
+     * @param selectors the classes, fields and methods to output and the format they are written in
      */
     @Command("class")
+    public String asmifyClass(final File file, final SelectorOptions selectors) throws IOException {
+        final byte[] bytes = IO.readBytes(file);
+        final Selector selector = selectors.selector();
+
+        if (!selector.accept(new ClassReader(bytes).getClassName() + ".class")) return null;
+
+        return Asmifier.asmify(bytes, selector);
+    }
+
     public String asmifyClass(final File file) throws IOException {
-        return Asmifier.asmify(IO.readBytes(file));
+        return asmifyClass(file, new SelectorOptions(null, null, null, false, false, false, Format.asmifier));
+    }
+
+    /**
+     * Find a class on a class path of jars and directories and output the ASM code required to create it via ASM.
+     *
+     * The jars and directories are searched in order and the first class found is used, as it would be by the JVM.
+     * The class entries of every jar are kept in an index in ~/.asmify/classpath along with the modification time
+     * and size of the jar.  Further lookups on the same class path only list the jars that changed since and read
+     * the class straight from its place in the jar, so finding a class on a class path of hundreds of jars does not
+     * open each of them again.
+     *
+     * PARAMETERS
+     *
+     *  - String: The name of the class, such as org.example.colors.Orange or org/example/colors/Orange.
+     *
+     * OPTIONS
+     *
+     *  - classpath: The jars and directories to search, separated by the path separator as for the java command.
+     *    An element ending with * stands for every jar in that directory.  May be repeated.
+     *  - class, field, method, structure-only, skip-frames, keep-debug: Choose what is output of the class,
+     *    as for `asmify class`.
+     *  - format: The form of the class, asmifier, textifier or json, as for `asmify class`.
+     *
+     * EXAMPLE
+     *
+     * To view a class of the dependencies of a Maven build
+     *
+     *     mvn dependency:build-classpath -Dmdep.outputFile=cp.txt
+     *     asmify find org.example.colors.Orange --classpath="target/classes:$(cat cp.txt)"
+     *
+     * To only view the constructors of a class in any jar of a directory
+     *
+     *     asmify find org.example.colors.Orange --classpath='lib/*' --method='<init>'
+     *
+     * RELATED
+     *
+     *  To output an individual class file
+     *
+     *     asmify class target/classes/org/example/colors/Orange.class
+     *
+     * @param className the name of the class to find
+     * @param classpath the jars and directories to search
+     * @param selectors the classes, fields and methods to output and the format they are written in
+     */
+    @Command("find")
+    public String find(final String className, @Option("classpath") final String[] classpath,
+                       final SelectorOptions selectors) throws IOException {
+        if (classpath == null) {
+            throw new ExitWithMessageException("Give the jars and directories to search with --classpath");
+        }
+
+        final List<File> elements = new ArrayList<>();
+        for (final String path : classpath) {
+            elements.addAll(ClassPath.parse(path));
+        }
+
+        final byte[] bytes = new ClassPath(elements, ClassPath.dir()).read(className);
+        if (bytes == null) throw new ExitWithMessageException("No class " + className + " on the class path");
+
+        final Selector selector = selectors.selector();
+        if (!selector.accept(new ClassReader(bytes).getClassName() + ".class")) return null;
+
+        return Asmifier.asmify(bytes, selector);
     }
 
     /**
@@ -75,7 +190,7 @@ public class AsmifierCommand {
      *    to the output directory with a ".asm" extension.  It is safe to view these files in an IDE
      *    as Java files and associate the ".asm" extension in your IDE accordingly.
      *  - file entries: entries that are unknown will be extracted as-is into the output directory.
-     *  - nested zip entries: entries with a well-known zip extension (zip, jar, war, ear, rar) will
+     *  - nested zip entries: entries with a well-known zip extension (zip, jar, war, ear, rar, jmod) will
      *    be recursively extracted into the output directory using the above logic.
      *
      * PARAMETERS
@@ -83,6 +198,68 @@ public class AsmifierCommand {
      *  - File: The path to a zip, jar, war, ear or similar file to parse and output as ASM.
      *  - Directory: The directory where all files will be extracted and converted to ASM.
      *
+     * OPTIONS
+     *
+     *  - threads: The number of threads converting class files.  The zip is always read by a single
+     *    thread which hands the class bytes to the converting threads.  Defaults to one thread per
+     *    available core.  The output is identical regardless of the number of threads.
+     *  - nested-memory: How much memory nested archives such as WEB-INF/lib/*.jar may occupy at once.
+     *    Nested archives are buffered in memory so their entries can be converted in parallel.  Once
+     *    the budget is used up further nested archives are spooled to temporary files instead.
+     *  - incremental: Only convert entries that changed since the last incremental run into the same
+     *    directory.  A manifest of the CRC-32 and size of every entry is kept in the output folder.
+     *    Entries that still match it are skipped and the output of entries no longer in the zip is removed.
+     *  - resume: Continue a run that was interrupted, skipping the entries it completed.  While a run writes
+     *    a folder it records every finished entry in .asmify-journal, removed once the run completes.  Every
+     *    file is written under a temporary name and renamed when complete, so an interrupted run never leaves
+     *    truncated files behind.  Cannot be combined with archive.
+     *  - cache: A directory where the output of every class is cached by the SHA-256 of its bytes.  The same
+     *    class found in several archives, or in several runs, is then only converted once.  The cache can be
+     *    shared by any number of runs.
+     *  - cache-size: The size above which the least recently used output is evicted from the cache.
+     *  - cache-link: Hardlink cached output into the output directory instead of copying it.
+     *  - archive: Write everything into a single zip file named after the zip with a ".zip" extension
+     *    instead of a folder.  One archive is far cheaper to create than thousands of small files on
+     *    network file systems.  Entries are laid out exactly as they would be in the folder and can
+     *    be read back one at a time with `asmify cat`.  The archive is written under a temporary name and
+     *    only renamed once complete.  Cannot be combined with incremental or resume.
+     *  - level: The deflate level of the archive entries from 1 to 9, 0 to store them uncompressed
+     *    or -1 for the default level.
+     *  - format: The form of each class.  asmifier writes the Java code creating the class with ASM,
+     *    textifier the disassembled class much as javap prints it, a fraction of the size, and json one
+     *    line per class with its members and instructions for scripts and jq.  The files keep the .asm
+     *    extension whatever the format.  Output cached in one format is never used for another.
+     *  - index: Also write an index of the types, methods and fields every class refers to, its string
+     *    constants and the opcodes it uses into the output as .asmify-index.  Query it with `asmify search`
+     *    rather than searching through the asmified files.  Kept up to date by incremental runs.
+     *  - include: Only convert class and resource entries whose path matches this glob.  May be repeated.
+     *    In a glob ** matches any number of directories, * anything but a slash and ? a single character.
+     *    A glob without a slash only looks at the file name, so *.properties matches in any directory.
+     *    Entries are matched by their path inside the archive that holds them, for example
+     *    WEB-INF/classes/com/ourco/** in a war or com/ourco/** in a jar.
+     *  - exclude: Skip class and resource entries whose path matches this glob.  May be repeated.
+     *  - include-nested: Only descend into nested archives whose path matches this glob.  May be repeated.
+     *  - exclude-nested: Never open nested archives whose path matches this glob.  May be repeated.
+     *  - class: Only convert the classes whose name matches.  May be repeated.  A dotted name such as
+     *    org.example.Parser or org.example.*Parser matches the full name, a simple name such as Parser
+     *    or *Parser matches in any package.
+     *  - field: Only output the fields with this name, or name followed by descriptor.  May be repeated.
+     *  - method: Only output the methods with this name, or name and descriptor such as
+     *    parse(Ljava/lang/String;)V.  May be repeated and may use * and ? wildcards.
+     *  - structure-only: Skip the code of every method, leaving the class header, annotations, fields
+     *    and method signatures.  Surveying the API of a large archive this way is several times faster.
+     *  - skip-frames: Skip the stack map frames of the code.
+     *  - keep-debug: Keep the source file, line numbers and local variable names, which are skipped by default.
+     *
+     *  - stats: Print a summary of the run once done: the number of classes and resources, the throughput
+     *    in classes and megabytes per second, the time spent inflating, parsing, asmifying and writing
+     *    summed over all threads, the counts of every nested archive and the slowest and largest classes.
+     *  - stats-json: Write the same report as JSON to this file.
+     *  - stats-top: How many of the slowest and largest classes to report.
+     *
+     * The filters are checked against the name of each entry before it is read, so skipped entries
+     * are never inflated and skipped nested archives never opened.
+     *
      * IMPORTANT
      *
      * This command is not a decompiler.
@@ -101,17 +278,61 @@ public class AsmifierCommand {
      * The above would result in a new directory called `/tmp/foo/myapp.war` containing the extracted
      * and asmified contents of `target/myapp.war`
      *
+     * To write the same contents into the single file `/tmp/foo/myapp.war.zip` instead
+     *
+     *     asmify zip --archive target/myapp.war /tmp/foo
+     *
+     * To only convert our own classes, and not look inside the third-party jars at all
+     *
+     *     asmify zip --include='WEB-INF/classes/com/ourco/**' --include-nested='ourco-*.jar' target/myapp.war /tmp/foo
+     *
+     * To only look at the parse methods of the generated parsers
+     *
+     *     asmify zip --class='*Parser' --method=parse target/myapp.war /tmp/foo
+     *
+     * To only survey the classes, fields and method signatures
+     *
+     *     asmify zip --structure-only target/myapp.war /tmp/foo
+     *
+     * To continue converting a large ear after the previous run was interrupted
+     *
+     *     asmify zip --resume target/myapp.ear /tmp/foo
+     *
      * RELATED
      *
      *  To output an individual class file
      *
      *     asmify class target/classes/org/example/colors/Orange.class
      *
+     *  To find the classes calling JAXB in an archive written with --index
+     *
+     *     asmify search --method='javax/xml/bind/**' /tmp/foo/myapp.war
+     *
+     *  To read one entry of an archive written with --archive
+     *
+     *     asmify cat /tmp/foo/myapp.war.zip WEB-INF/classes/org/example/colors/Orange.class.asm
+     *
      * @param zip path to a zip, jar, war, ear or similar file to parse and output as ASM
      * @param directory the directory where all files will be extracted and converted to ASM
+     * @param threads the number of threads converting class files, zero for one per available core
+     * @param nestedMemory how much memory nested archives may occupy before being spooled to disk
+     * @param incremental only convert entries that changed since the last incremental run
+     * @param resume skip the entries completed by the interrupted run recorded in the journal
+     * @param cache where and how the output of every class is cached by its content
+     * @param filters globs of the entries to convert and the nested archives to descend into
+     * @param report whether to report counts and timings of the run and where
+     * @param outputs whether to write a folder or a single zip file, the format of the classes and whether to index them
      */
     @Command("zip")
-    public void zip(final File zip, final Directory directory) throws Exception {
+    public void zip(final File zip, final Directory directory,
+                    @Option("threads") @Default("0") final int threads,
+                    @Option("nested-memory") @Default("128mb") final Size nestedMemory,
+                    @Option("incremental") final boolean incremental,
+                    @Option("resume") final boolean resume,
+                    final CacheOptions cache,
+                    final FilterOptions filters,
+                    final StatsOptions report,
+                    final OutputOptions outputs) throws Exception {
         final File output = directory.get();
 
         try {
@@ -127,47 +348,851 @@ public class AsmifierCommand {
             throw new ExitWithMessageException(e);
         }
 
-        final File dest = new File(output, zip.getName());
+        if (outputs.archive() && incremental) {
+            throw new ExitWithMessageException("The incremental option only applies to directory output");
+        }
+
+        if (outputs.archive() && resume) {
+            throw new ExitWithMessageException("The resume option only applies to directory output");
+        }
+
+        outputs.validate();
+
+        final Stats stats = report.stats();
+
+        try (final Workers workers = new Workers(threads);
+             final Output out = outputs.open(output, zip.getName(), Workers.threads(threads))) {
+            new ZipProcessor(workers)
+                    .nestedMemory(nestedMemory.getSize(SizeUnit.BYTES))
+                    .incremental(incremental)
+                    .resume(resume)
+                    .entries(filters.entries())
+                    .nested(filters.nested())
+                    .selector(outputs.selector(filters))
+                    .cache(cache.cache(outputs.selector(filters).toString()))
+                    .stats(stats)
+                    .index(outputs.index())
+                    .process(zip, out);
+        }
+
+        report.report(stats, Environment.ENVIRONMENT_THREAD_LOCAL.get().getOutput());
+    }
+
+    public void zip(final File zip, final Directory directory) throws Exception {
+        zip(zip, directory, 0, new Size("128mb"), false, false,
+                new CacheOptions(null, new Size("1gb"), false),
+                new FilterOptions(null, null, null, null, null, null, null, false, false, false),
+                new StatsOptions(false, null, 10),
+                new OutputOptions(false, -1, false, Format.asmifier));
+    }
+
+    /**
+     * Find every class file and zip archive under the specified directory and output them to the specified directory.
+     *
+     * The directory is walked recursively, for example a `target/classes` folder or a whole Maven repository.
+     * Its contents are converted into a new folder in the output directory named after the walked directory:
+     *
+     *  - class files: parsed into asmified format and written with a ".asm" extension at the same relative path.
+     *  - zip files: files with a well-known zip extension (zip, jar, war, ear, rar, jmod) are extracted and converted
+     *    into a folder named after the file exactly as `asmify zip` would.
+     *  - other files: ignored.
+     *
+     * The tree is walked by a single thread which hands the files it finds to the converting threads, so the
+     * walk overlaps with the conversion.
+     *
+     * PARAMETERS
+     *
+     *  - File: The directory to walk for class files and archives.
+     *  - Directory: The directory where all files will be converted to ASM.
+     *
+     * OPTIONS
+     *
+     *  - threads: The number of threads converting class files.  Defaults to one thread per available core.
+     *    The output is identical regardless of the number of threads.
+     *  - nested-memory: How much memory archives nested inside the archives found may occupy at once.
+     *  - archive: Write everything into a single zip file named after the directory with a ".zip" extension
+     *    instead of a folder.
+     *  - level: The deflate level of the archive entries from 1 to 9, 0 to store them uncompressed
+     *    or -1 for the default level.
+     *  - format: The form of each class, asmifier, textifier or json, as for `asmify zip`.
+     *  - index: Also write an index of what every class refers to, as for `asmify zip`.
+     *  - cache, cache-size, cache-link: Cache the output of every class by its content, as for `asmify zip`.
+     *  - include, exclude: Only convert the class files and archive entries whose path matches, or does not match,
+     *    the glob.  Class files are matched by their path relative to the walked directory.
+     *  - include-nested, exclude-nested: Only open the archives whose path matches, or does not match, the glob.
+     *  - class, field, method: Only convert the selected classes and only output their selected fields and
+     *    methods, as for `asmify zip`.
+     *  - structure-only, skip-frames, keep-debug: Choose what is read of each class, as for `asmify zip`.
+     *  - stats, stats-json, stats-top: Report counts and timings of the run, as for `asmify zip`.
+     *
+     * IMPORTANT
+     *
+     * This command is not a decompiler.
+     *
+     * Links to directories are not followed.
+     *
+     * EXAMPLE
+     *
+     * To convert the classes of a Maven build into /tmp/foo/classes
+     *
+     *     asmify dir target/classes /tmp/foo
+     *
+     * To convert every jar of one group in the local Maven repository
+     *
+     *     asmify dir ~/.m2/repository/org/tomitribe /tmp/foo
+     *
+     * RELATED
+     *
+     *  To process a single zip file
+     *
+     *     asmify zip target/myapp.war /tmp/foo
+     *
+     * @param dir the directory to walk for class files and archives
+     * @param directory the directory where all files will be converted to ASM
+     * @param threads the number of threads converting class files, zero for one per available core
+     * @param nestedMemory how much memory nested archives may occupy before being spooled to disk
+     * @param cache where and how the output of every class is cached by its content
+     * @param filters globs of the entries to convert and the archives to descend into
+     * @param report whether to report counts and timings of the run and where
+     * @param outputs whether to write a folder or a single zip file, the format of the classes and whether to index them
+     */
+    @Command("dir")
+    public void dir(final File dir, final Directory directory,
+                    @Option("threads") @Default("0") final int threads,
+                    @Option("nested-memory") @Default("128mb") final Size nestedMemory,
+                    final CacheOptions cache,
+                    final FilterOptions filters,
+                    final StatsOptions report,
+                    final OutputOptions outputs) throws Exception {
+        final File output = directory.get();
+
+        try {
+            Files.exists(dir);
+            Files.dir(dir);
+            Files.readable(dir);
+
+            Files.exists(output);
+            Files.dir(output);
+            Files.readable(output);
+            Files.writable(output);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        outputs.validate();
+
+        final Stats stats = report.stats();
+        final String name = dir.getAbsoluteFile().toPath().normalize().toFile().getName();
+
+        try (final Workers workers = new Workers(threads);
+             final Output out = outputs.open(output, name, Workers.threads(threads))) {
+            new ZipProcessor(workers)
+                    .nestedMemory(nestedMemory.getSize(SizeUnit.BYTES))
+                    .entries(filters.entries())
+                    .nested(filters.nested())
+                    .selector(outputs.selector(filters))
+                    .cache(cache.cache(outputs.selector(filters).toString()))
+                    .stats(stats)
+                    .index(outputs.index())
+                    .processTree(dir, out);
+        }
+
+        report.report(stats, Environment.ENVIRONMENT_THREAD_LOCAL.get().getOutput());
+    }
+
+    /**
+     * Convert the classes of the modules of a Java runtime image and output them to the specified directory.
+     *
+     * The classes are read straight from the jrt:/ file system of the image, so neither the jmod files nor an
+     * unpacked copy of the modules is needed.  They are converted into a new folder in the output directory named
+     * after the version of the runtime, such as jdk-17.0.9, holding a folder per module:
+     *
+     *  - class files: parsed into asmified format and written with a ".asm" extension at the same path
+     *    within the folder of their module.
+     *  - other files: copied as they are.
+     *
+     * The modules are listed by a single thread which hands the classes it finds to the converting threads,
+     * so the whole image is converted on every available core.
+     *
+     * PARAMETERS
+     *
+     *  - Directory: The directory where the modules will be converted to ASM.
+     *
+     * OPTIONS
+     *
+     *  - module: Only convert this module.  May be repeated.  Defaults to every module of the image.
+     *  - java-home: The home of the JDK or JRE whose image is converted, Java 9 or later.  Defaults to the
+     *    runtime running this command.
+     *  - threads: The number of threads converting class files.  Defaults to one thread per available core.
+     *    The output is identical regardless of the number of threads.
+     *  - archive: Write everything into a single zip file named after the runtime with a ".zip" extension
+     *    instead of a folder.
+     *  - level: The deflate level of the archive entries from 1 to 9, 0 to store them uncompressed
+     *    or -1 for the default level.
+     *  - format: The form of each class, asmifier, textifier or json, as for `asmify zip`.
+     *  - index: Also write an index of what every class refers to, as for `asmify zip`.
+     *  - cache, cache-size, cache-link: Cache the output of every class by its content, as for `asmify zip`.
+     *  - include, exclude: Only convert the files whose path within their module matches, or does not match,
+     *    the glob.
+     *  - class, field, method: Only convert the selected classes and only output their selected fields and
+     *    methods, as for `asmify zip`.
+     *  - structure-only, skip-frames, keep-debug: Choose what is read of each class, as for `asmify zip`.
+     *  - stats, stats-json, stats-top: Report counts and timings of the run, each module counted as an
+     *    archive, as for `asmify zip`.
+     *
+     * IMPORTANT
+     *
+     * This command is not a decompiler.
+     *
+     * The classes of a runtime image are those the JDK was linked with, which may differ from those of its
+     * jmod files.  A jmod file is converted like any other archive by `asmify zip` and `asmify dir`, its
+     * classes under the classes folder.
+     *
+     * EXAMPLE
+     *
+     * To convert java.base of the running JDK into /tmp/foo/jdk-17.0.9/java.base
+     *
+     *     asmify jdk --module=java.base /tmp/foo
+     *
+     * To convert every module of another JDK
+     *
+     *     asmify jdk --java-home=/opt/jdk-21 /tmp/foo
+     *
+     * RELATED
+     *
+     *  To compare the classes of the jmod files of two JDKs
+     *
+     *     asmify diff /opt/jdk-17.0.8/jmods/java.base.jmod /opt/jdk-17.0.9/jmods/java.base.jmod
+     *
+     * @param directory the directory where the modules will be converted to ASM
+     * @param modules the modules to convert, all of them when none is given
+     * @param javaHome the home of the runtime whose image is converted, the running one when null
+     * @param threads the number of threads converting class files, zero for one per available core
+     * @param cache where and how the output of every class is cached by its content
+     * @param filters globs of the files to convert and the classes and members to output
+     * @param report whether to report counts and timings of the run and where
+     * @param outputs whether to write a folder or a single zip file, the format of the classes and whether to index them
+     */
+    @Command("jdk")
+    public void jdk(final Directory directory,
+                    @Option("module") final String[] modules,
+                    @Option("java-home") final File javaHome,
+                    @Option("threads") @Default("0") final int threads,
+                    final CacheOptions cache,
+                    final FilterOptions filters,
+                    final StatsOptions report,
+                    final OutputOptions outputs) throws Exception {
+        final File output = directory.get();
+
+        try {
+            Files.exists(output);
+            Files.dir(output);
+            Files.readable(output);
+            Files.writable(output);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        outputs.validate();
+
+        final Stats stats = report.stats();
+
+        try (final RuntimeImage image = open(javaHome)) {
+            final List<String> all = image.modules();
+            final List<String> selected = modules == null || modules.length == 0 ? all : Arrays.asList(modules);
+            for (final String module : selected) {
+                if (!all.contains(module)) throw new ExitWithMessageException("No such module: " + module);
+            }
+
+            try (final Workers workers = new Workers(threads);
+                 final Output out = outputs.open(output, image.name(), Workers.threads(threads))) {
+                new ZipProcessor(workers)
+                        .entries(filters.entries())
+                        .selector(outputs.selector(filters))
+                        .cache(cache.cache(outputs.selector(filters).toString()))
+                        .stats(stats)
+                        .index(outputs.index())
+                        .processModules(image.root(), selected, out);
+            }
+        }
+
+        report.report(stats, Environment.ENVIRONMENT_THREAD_LOCAL.get().getOutput());
+    }
+
+    private static RuntimeImage open(final File javaHome) throws IOException {
+        try {
+            return new RuntimeImage(javaHome);
+        } catch (final IOException e) {
+            throw new ExitWithMessageException(e);
+        }
+    }
+
+    /**
+     * Watch a directory of class files and keep their asmified output up to date as they are compiled again.
+     *
+     * The classes are first converted into a new folder in the output directory named after the watched
+     * directory, as `asmify dir` would.  The command then keeps running and, each time the classes change,
+     * converts only the class files that changed and deletes the output of the class files that were removed.
+     * Nothing is scanned and no JVM is started for a change, so the output is fresh within milliseconds of
+     * each compile.
+     *
+     * A compiler writes its classes in a burst, so after the first change the command waits until the files
+     * were quiet for the debounce delay and then converts the whole burst at once.  A line is printed for
+     * each burst, along with any class that could not be converted.  Stop the command with Ctrl-C.
+     *
+     * PARAMETERS
+     *
+     *  - File: The directory of class files to watch, such as target/classes.
+     *  - Directory: The directory where the class files will be converted to ASM.
+     *
+     * OPTIONS
+     *
+     *  - threads: The number of threads converting a burst of class files.  Defaults to one thread per
+     *    available core.
+     *  - debounce: How long the files must be quiet before a burst of changes is converted.
+     *  - class, field, method: Only convert the selected classes and only output their selected fields and
+     *    methods, as for `asmify zip`.
+     *  - structure-only, skip-frames, keep-debug: Choose what is read of each class, as for `asmify zip`.
+     *  - format: The form of each class, asmifier, textifier or json, as for `asmify zip`.
+     *
+     * IMPORTANT
+     *
+     * This command is not a decompiler.
+     *
+     * Only class files are converted, archives in the directory are ignored.  When too many changes happen
+     * at once for the file system to report them all, the directory is scanned again and the classes newer
+     * than their output are converted.  The command always runs in its own JVM, never in the daemon.
+     *
+     * EXAMPLE
+     *
+     * To follow the classes of a Maven build in /tmp/foo/classes while working on them
+     *
+     *     asmify watch target/classes /tmp/foo
+     *
+     * RELATED
+     *
+     *  To convert the classes once
+     *
+     *     asmify dir target/classes /tmp/foo
+     *
+     * @param dir the directory of class files to watch
+     * @param directory the directory where the class files will be converted to ASM
+     * @param threads the number of threads converting a burst of class files, zero for one per available core
+     * @param debounce how long the files must be quiet before a burst of changes is converted
+     * @param selection the classes and members to convert, what is read of each class and its format
+     */
+    @Command("watch")
+    public void watch(final File dir, final Directory directory,
+                      @Option("threads") @Default("0") final int threads,
+                      @Option("debounce") @Default("50 milliseconds") final Duration debounce,
+                      final SelectorOptions selection) throws Exception {
+        final File output = directory.get();
+
+        try {
+            Files.exists(dir);
+            Files.dir(dir);
+            Files.readable(dir);
+
+            Files.exists(output);
+            Files.dir(output);
+            Files.readable(output);
+            Files.writable(output);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        final String name = dir.getAbsoluteFile().toPath().normalize().toFile().getName();
+        final PrintStream out = Environment.ENVIRONMENT_THREAD_LOCAL.get().getOutput();
 
-        final InputStream in = IO.read(zip);
+        try (final Watcher watcher = new Watcher(dir, new File(output, name), selection.selector(), threads,
+                debounce.getTime(TimeUnit.MILLISECONDS))) {
+            Watcher.Changes changes = watcher.scan();
+            while (true) {
+                out.println(changes);
+                for (final String error : changes.getErrors()) {
+                    out.println("  " + error);
+                }
+                out.flush();
 
-        processZip(in, dest);
+                changes = watcher.poll();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private static void processZip(final InputStream in, final File dest) throws IOException {
-        final ZipInputStream zipInputStream = new ZipInputStream(in);
+    /**
+     * Read a zip archive or a single class file from stdin and stream the converted contents to stdout.
+     *
+     * Entries are handled as by `asmify zip`, but nothing is written to disk: the archive is read as it
+     * arrives and every converted entry is written as soon as the entries before it are, as a zip or tar
+     * stream or as one line of JSON per entry.  Memory use stays within the nested-memory budget and a few
+     * entries per thread however large the archive, so the command can sit between `curl` and an upload to
+     * object storage.  The one exception is an entry whose size is not known until it is read, as written
+     * by tools using data descriptors: a tar header, or a zip header with level 0, gives the size before the
+     * data, so such an entry is held in memory whole.
+     *
+     * The JSON lines hold the path of each entry and either the asmified text of a class or the bytes of a
+     * resource in base64:
+     *
+     *     {"path":"org/example/Orange.class.asm","text":"package asm.org.example;\n..."}
+     *     {"path":"META-INF/orange.txt","base64":"T3JhbmdlIGlzIHJhcmU="}
+     *
+     * OPTIONS
+     *
+     *  - to: The form of the output, zip, tar or ndjson.
+     *  - threads: The number of threads converting class files.  The output is identical regardless of the
+     *    number of threads.
+     *  - nested-memory: How much memory nested archives may occupy at once.  Nested archives that do not fit
+     *    are read as a stream instead, by the thread reading stdin.
+     *  - level: The deflate level of the zip entries from 1 to 9, 0 to store them uncompressed or -1 for the
+     *    default level.
+     *  - format: The form of each class, asmifier, textifier or json, as for `asmify zip`.  The JSON line of
+     *    a class is held as it is in the "class" field of its ndjson record rather than as text.
+     *  - include, exclude, include-nested, exclude-nested: Choose the entries to convert, as for `asmify zip`.
+     *  - class, field, method: Only convert the selected classes and only their selected fields and methods,
+     *    as for `asmify zip`.
+     *  - structure-only, skip-frames, keep-debug: Choose what is read of each class, as for `asmify zip`.
+     *
+     * IMPORTANT
+     *
+     * A single class file on stdin is recognized by its magic number and written as one entry named after
+     * the class.  The command always runs in its own JVM, never in the daemon, as stdin is not forwarded.
+     *
+     * EXAMPLE
+     *
+     * To convert a war as it is downloaded and upload the result as it is converted
+     *
+     *     curl -s https://repo.example.org/myapp.war | asmify stream --to=tar | aws s3 cp - s3://bucket/myapp.tar
+     *
+     * To list the classes of a jar that use a string
+     *
+     *     asmify stream --to=ndjson < myapp.jar | grep 'jdbc:' | jq -r .path
+     *
+     * RELATED
+     *
+     *  To convert an archive on disk into a directory
+     *
+     *     asmify zip target/myapp.war /tmp/foo
+     *
+     * @param to the form of the output, zip, tar or ndjson
+     * @param threads the number of threads converting class files, zero for one per available core
+     * @param nestedMemory how much memory nested archives may occupy before being read as a stream
+     * @param level the deflate level of the zip entries
+     * @param format the form of each class
+     * @param filters globs of the entries to convert and the nested archives to descend into
+     */
+    @Command("stream")
+    public StreamingOutput stream(@Option("to") @Default("zip") final StreamFormat to,
+                                  @Option("threads") @Default("0") final int threads,
+                                  @Option("nested-memory") @Default("128mb") final Size nestedMemory,
+                                  @Option("level") @Default("-1") final int level,
+                                  @Option("format") @Default("asmifier") final Format format,
+                                  final FilterOptions filters) {
+        if (level < -1 || level > 9) {
+            throw new ExitWithMessageException("The level must be between -1 and 9");
+        }
 
-        ZipEntry entry;
-        while ((entry = zipInputStream.getNextEntry()) != null) {
-            final String path = entry.getName();
+        final InputStream stdin = Environment.ENVIRONMENT_THREAD_LOCAL.get().getInput();
 
-            if (path.endsWith(".class")) {
+        return stdout -> {
+            final InputStream in = new BufferedInputStream(stdin, 64 * 1024);
 
-                final String asmified = Asmifier.asmify(IO.readBytes(zipInputStream));
+            try (final Workers workers = new Workers(threads);
+                 final Output output = to.open(stdout, level, Workers.threads(threads) * 16, format)) {
+                final Selector selector = filters.selector().format(format);
 
-                final File file = new File(dest, path + ".asm");
-                Files.mkdirs(file.getParentFile());
-                IO.copy(IO.read(asmified), file);
+                if (!Bytecode.isClass(in)) {
+                    new ZipProcessor(workers)
+                            .nestedMemory(nestedMemory.getSize(SizeUnit.BYTES))
+                            .spool(false)
+                            .entries(filters.entries())
+                            .nested(filters.nested())
+                            .selector(selector)
+                            .process(in, output);
+                    return;
+                }
 
-            } else if (isZip(path)) {
+                final byte[] bytes = IO.readBytes(in);
+                final String path = new ClassReader(bytes).getClassName() + ".class";
+                if (selector.accept(path)) output.entry(path + ".asm").asmify(bytes, selector, null, null);
+            }
+        };
+    }
 
-                processZip(zipInputStream, new File(dest, path));
+    /**
+     * Compare two versions of a zip archive and output a unified diff of the asmified classes that changed.
+     *
+     * Entries are paired by name, including the entries of nested archives such as WEB-INF/lib/*.jar.  Pairs whose
+     * CRC-32 and size match are skipped without being read, so only the classes that actually changed are asmified.
+     * This makes it cheap to review what a bytecode weaving or shading step did to a large jar.
+     *
+     * The output is a unified diff, as produced by `diff -u` or git, of the asmified output of each changed class.
+     * Classes only present on one side are diffed against /dev/null.  Resources that changed are listed by name only.
+     *
+     * PARAMETERS
+     *
+     *  - File: The old version of the zip, jar, war, ear or similar file.
+     *  - File: The new version of the archive.
+     *
+     * OPTIONS
+     *
+     *  - context: How many unchanged lines to show around each change.
+     *  - include, exclude: Only compare the class and resource entries whose path matches, or does not match, the glob.
+     *  - include-nested, exclude-nested: Only descend into the nested archives whose path matches, or does not match, the glob.
+     *  - class, field, method: Only compare the selected classes and only their selected fields and methods,
+     *    as for `asmify zip`.  Changes to other members of those classes are not reported.
+     *  - structure-only, skip-frames, keep-debug: Choose what is read of each class, as for `asmify zip`.
+     *    With structure-only only changes to the signatures are reported.
+     *
+     * EXAMPLE
+     *
+     * To see what weaving did to the classes of a jar
+     *
+     *     asmify diff target/myapp.jar target/myapp-woven.jar
+     *
+     * To keep the changes as a patch file any diff viewer can open
+     *
+     *     asmify diff target/myapp.jar target/myapp-woven.jar > weaving.patch
+     *
+     * RELATED
+     *
+     *  To output an individual class file
+     *
+     *     asmify class target/classes/org/example/colors/Orange.class
+     *
+     * @param before the old version of the archive
+     * @param after the new version of the archive
+     * @param context how many unchanged lines to show around each change
+     * @param filters globs of the entries to compare and the nested archives to descend into
+     */
+    @Command("diff")
+    public StreamingOutput diff(final File before, final File after,
+                                @Option("context") @Default("3") final int context,
+                                final FilterOptions filters) {
+        try {
+            Files.exists(before);
+            Files.file(before);
+            Files.readable(before);
+
+            Files.exists(after);
+            Files.file(after);
+            Files.readable(after);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        return out -> {
+            final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            new ArchiveDiff(new BufferedWriter(writer), Math.max(0, context))
+                    .entries(filters.entries())
+                    .nested(filters.nested())
+                    .selector(filters.selector())
+                    .diff(before, after);
+        };
+    }
+
+    /**
+     * Read a single entry of a zip archive and write it to the console.
+     *
+     * Only the requested entry is read and inflated, the rest of the archive is left untouched.  This is
+     * the way to look at one class of an archive written by `asmify zip --archive` without extracting it.
+     *
+     * PARAMETERS
+     *
+     *  - File: The path to a zip, jar or similar file.
+     *  - String: The full path of the entry inside the archive.
+     *
+     * EXAMPLE
+     *
+     * To view the asmified output of one class from an archive written by `asmify zip --archive`
+     *
+     *     asmify zip --archive target/myapp.war /tmp/foo
+     *     asmify cat /tmp/foo/myapp.war.zip WEB-INF/classes/org/example/colors/Orange.class.asm
+     *
+     * RELATED
+     *
+     *  To process an entire zip file
+     *
+     *     asmify zip target/myapp.war /tmp/foo
+     *
+     * @param archive path to a zip, jar or similar file
+     * @param name the full path of the entry inside the archive
+     */
+    @Command("cat")
+    public StreamingOutput cat(final File archive, final String name) throws Exception {
+        try {
+            Files.exists(archive);
+            Files.file(archive);
+            Files.readable(archive);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        final CentralDirectory directory = CentralDirectory.open(archive);
 
-            } else {
-                // is a resource file
+        for (final CentralDirectory.Entry entry : directory.entries()) {
+            if (!entry.getName().equals(name)) continue;
 
-                final byte[] bytes = IO.readBytes(zipInputStream);
-                if (bytes.length > 0) {
-                    final File file = new File(dest, path);
-                    Files.mkdirs(file.getParentFile());
-                    IO.copy(IO.read(bytes), file);
+            return out -> {
+                try (final CentralDirectory closing = directory;
+                     final InputStream in = closing.open(entry)) {
+                    IO.copy(in, out);
                 }
+            };
+        }
+
+        directory.close();
+        throw new ExitWithMessageException("No entry " + name + " in " + archive.getPath());
+    }
+
+    /**
+     * Dump the bytes of a class file in hex, annotated with the structure of the class file.
+     *
+     * Each row shows the offset, 16 bytes in hex and as ASCII, and the parts of the class file starting in that
+     * row: the header, every constant pool entry with its index and type, the fields and methods by name, their
+     * attributes and the start of the code of each method.  Each annotation starts with the column of its first
+     * byte.  Where the class file stops making sense the row is marked unreadable, the place to look for the bytes
+     * a broken transformer wrote.
+     *
+     * PARAMETERS
+     *
+     *  - File: The class file, or the zip, jar or similar file holding it when the entry option is given.
+     *
+     * OPTIONS
+     *
+     *  - entry: The full path of the class inside the archive, to dump it without extracting it.
+     *
+     * EXAMPLE
+     *
+     * To see where a woven class goes wrong
+     *
+     *     asmify hex target/classes/org/example/colors/Orange.class
+     *
+     * To dump a class inside a jar
+     *
+     *     asmify hex --entry=org/example/colors/Orange.class target/myapp.jar
+     *
+     * RELATED
+     *
+     *  To output the ASM code of the same class
+     *
+     *     asmify class target/classes/org/example/colors/Orange.class
+     *
+     * @param file the class file, or the archive holding it
+     * @param entry the full path of the class inside the archive
+     */
+    @Command("hex")
+    public StreamingOutput hex(final File file, @Option("entry") final String entry) throws Exception {
+        try {
+            Files.exists(file);
+            Files.file(file);
+            Files.readable(file);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        if (entry == null) {
+            final byte[] bytes = IO.readBytes(file);
+            return out -> new HexDump(out).dump(bytes);
+        }
+
+        try (final CentralDirectory directory = CentralDirectory.open(file)) {
+            for (final CentralDirectory.Entry candidate : directory.entries()) {
+                if (!candidate.getName().equals(entry)) continue;
+
+                final byte[] bytes = directory.read(candidate);
+                return out -> new HexDump(out).dump(bytes);
             }
         }
+
+        throw new ExitWithMessageException("No entry " + entry + " in " + file.getPath());
     }
 
-    private static boolean isZip(final String path) {
-        return Is.Zip.accept(path);
+    /**
+     * Search the index written by `asmify zip --index` or `asmify dir --index` and list what matches.
+     *
+     * The index records for every class, and every method and field of it, the types, methods and fields it
+     * refers to, the string constants it loads and the opcodes it uses.  Answering "who calls javax/xml/bind"
+     * from it takes a fraction of a second where searching the asmified output of a large archive takes minutes.
+     *
+     * Each match is printed on one line as the path of the class in the archive, the method or field after a #,
+     * and the term that matched.  Class level matches such as the super class have no method or field.
+     *
+     * PARAMETERS
+     *
+     *  - File: The folder or zip file written with --index, or the .asmify-index file itself.
+     *
+     * OPTIONS
+     *
+     *  - type: Find the uses of the classes whose internal name matches this glob, as in
+     *    javax/xml/bind/JAXBContext.  May be repeated.  As for the include option of `asmify zip`, **
+     *    matches any number of packages, * anything but a slash and a glob without a slash such as
+     *    JAXB* only looks at the simple name.
+     *  - method: Find the calls of the methods matching this glob, written as the owner, a dot and the name
+     *    optionally followed by the descriptor, as in javax/xml/bind/JAXBContext.newInstance.  May be repeated.
+     *  - field: Find the uses of the fields matching this glob, written as the owner, a dot and the name
+     *    optionally followed by a colon and the descriptor.  May be repeated.
+     *  - string: Find the string constants matching this glob, where * matches anything.  May be repeated.
+     *  - opcode: Find the uses of the opcodes matching this glob, as in INVOKEDYNAMIC or MONITOR*.  May be repeated.
+     *
+     * IMPORTANT
+     *
+     * The index only holds what was converted.  Classes skipped by the filters, and the code of methods
+     * with structure-only, are not in it.
+     *
+     * EXAMPLE
+     *
+     * To index a war and find every class using JAXB
+     *
+     *     asmify zip --index target/myapp.war /tmp/foo
+     *     asmify search --type='javax/xml/bind/**' /tmp/foo/myapp.war
+     *
+     * To find the methods using synchronized blocks or loading a JDBC URL
+     *
+     *     asmify search --opcode=MONITORENTER --string='jdbc:*' /tmp/foo/myapp.war
+     *
+     * RELATED
+     *
+     *  To convert an archive and index it
+     *
+     *     asmify zip --index target/myapp.war /tmp/foo
+     *
+     * @param index the folder or zip file written with --index, or the index file itself
+     * @param types globs of the internal names of the classes to find the uses of
+     * @param methods globs of the methods to find the calls of
+     * @param fields globs of the fields to find the uses of
+     * @param strings globs of the string constants to find
+     * @param opcodes globs of the opcodes to find
+     */
+    @Command("search")
+    public StreamingOutput search(final File index,
+                                  @Option("type") final String[] types,
+                                  @Option("method") final String[] methods,
+                                  @Option("field") final String[] fields,
+                                  @Option("string") final String[] strings,
+                                  @Option("opcode") final String[] opcodes) throws Exception {
+        try {
+            Files.exists(index);
+            Files.readable(index);
+        } catch (Exception e) {
+            throw new ExitWithMessageException(e);
+        }
+
+        final Index.Query query = new Index.Query()
+                .add(Index.Kind.TYPE, list(types))
+                .add(Index.Kind.METHOD, list(methods))
+                .add(Index.Kind.FIELD, list(fields))
+                .add(Index.Kind.STRING, list(strings))
+                .add(Index.Kind.OPCODE, list(opcodes));
+
+        if (query.isEmpty()) {
+            throw new ExitWithMessageException("Search for at least one --type, --method, --field, --string or --opcode");
+        }
+
+        if (index.isDirectory()) {
+            final File file = new File(index, Index.NAME);
+            if (!file.isFile()) throw new ExitWithMessageException("No index in " + index.getPath() + ", convert it with --index");
+            return out -> search(IO.read(file), query, out);
+        }
+
+        final CentralDirectory directory;
+        try {
+            directory = CentralDirectory.open(index);
+        } catch (final ZipException e) {
+            // Not an archive, so the index file itself
+            return out -> search(IO.read(index), query, out);
+        }
+
+        for (final CentralDirectory.Entry entry : directory.entries()) {
+            if (!entry.getName().equals(Index.NAME)) continue;
+
+            return out -> {
+                try (final CentralDirectory closing = directory) {
+                    search(closing.open(entry), query, out);
+                }
+            };
+        }
+
+        directory.close();
+        throw new ExitWithMessageException("No index in " + index.getPath() + ", convert it with --index");
+    }
+
+    private static void search(final InputStream index, final Index.Query query, final OutputStream out) throws IOException {
+        try (final InputStream in = index) {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            Index.search(in, query, writer);
+        }
+    }
+
+    private static List<String> list(final String[] values) {
+        return values == null ? null : Arrays.asList(values);
+    }
+
+    /**
+     * Keep a warm JVM running in the background and run every further asmify command in it.
+     *
+     * Each asmify invocation otherwise pays for starting a JVM, loading ASM and discovering the
+     * commands, which dominates when a build runs `asmify class` or `asmify cat` hundreds of times.
+     * While the daemon runs, the asmify launcher hands its arguments and working directory to the
+     * daemon and prints the output it sends back.  The exit code is that of the command.
+     *
+     * The daemon only listens on the loopback interface.  Its port and a random token are written to
+     * ~/.asmify/daemon, readable only by the current user, and a client must present the token.
+     * Commands run concurrently, each on its own thread.
+     *
+     * OPTIONS
+     *
+     *  - stop: Stop the running daemon instead of starting one.
+     *
+     * IMPORTANT
+     *
+     * Relative paths are resolved against the directory the client was started in.  Commands run in the
+     * daemon do not see the environment variables or standard input of the client.  Set ASMIFY_DAEMON=off
+     * to run a single command without the daemon.  A daemon of a different asmify version is ignored.
+     *
+     * EXAMPLE
+     *
+     * To start a daemon in the background, convert several classes with it and stop it again
+     *
+     *     asmify daemon &
+     *     asmify class target/classes/org/example/colors/Orange.class
+     *     asmify class target/classes/org/example/colors/Green.class
+     *     asmify daemon --stop
+     *
+     * RELATED
+     *
+     *  To output an individual class file
+     *
+     *     asmify class target/classes/org/example/colors/Orange.class
+     *
+     * @param stop stop the running daemon instead of starting one
+     */
+    @Command("daemon")
+    public String daemon(@Option("stop") final boolean stop) throws IOException {
+        if (stop) {
+            return Daemon.stop(Daemon.file()) ? "Daemon stopped" : "No daemon running";
+        }
+
+        final Daemon daemon = new Daemon(new org.tomitribe.crest.Main(), Daemon.file());
+        try {
+            // Ctrl-C must not leave a port file behind
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (final IOException e) {
+                    // exiting anyway
+                }
+            }));
+
+            final Environment environment = Environment.ENVIRONMENT_THREAD_LOCAL.get();
+            environment.getOutput().printf("Daemon listening on port %d%n", daemon.getPort());
+            environment.getOutput().flush();
+            daemon.run();
+        } finally {
+            daemon.close();
+        }
+        return "Daemon stopped";
     }
 
     public static class Zip {
@@ -182,7 +1207,7 @@ public class AsmifierCommand {
         }
 
         public static Directory from(final String fileName) {
-            return new Directory(new File(fileName));
+            return new Directory(Daemon.resolve(fileName));
         }
     }
 
@@ -198,7 +1223,7 @@ public class AsmifierCommand {
         }
 
         public static Directory from(final String fileName) {
-            return new Directory(new File(fileName));
+            return new Directory(Daemon.resolve(fileName));
         }
     }
 }
@@ -0,0 +1,387 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.util.ASMifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link ASMifier} writing its output as it goes instead of keeping
+ * the text of the whole class until the end.
+ *
+ * ASMifier turns every event into a String and keeps them all, along
+ * with a printer per method, field and annotation, until the class is
+ * printed.  This printer writes each line to the writer once nothing
+ * before it can change any more.  The lines of the instructions, by far
+ * the most of them, are built in the reused StringBuilder of the printer
+ * from constant strings cached per opcode and copied to the writer
+ * through a reused char array, so they never become a String whatever
+ * the writer.  The less frequent events are left to
+ * ASMifier and their text written out at the next instruction or end.
+ *
+ * The output is exactly that of ASMifier.  Printers belong to the
+ * thread and are reused for every class it asmifies, and the printers
+ * of the methods, fields and annotations within a class are reused for
+ * the next method, field or annotation of the same kind.
+ */
+class AsmifierPrinter extends ASMifier implements AutoCloseable {
+
+    private static final ThreadLocal<AsmifierPrinter> PRINTERS = ThreadLocal.withInitial(AsmifierPrinter::new);
+
+    private static final String[] INSN = opcodes(".visitInsn(", ");\n");
+    private static final String[] INT_INSN = opcodes(".visitIntInsn(", ", ");
+    private static final String[] VAR_INSN = opcodes(".visitVarInsn(", ", ");
+    private static final String[] TYPE_INSN = opcodes(".visitTypeInsn(", ", ");
+    private static final String[] FIELD_INSN = opcodes(".visitFieldInsn(", ", ");
+    private static final String[] METHOD_INSN = opcodes(".visitMethodInsn(", ", ");
+    private static final String[] JUMP_INSN = opcodes(".visitJumpInsn(", ", ");
+
+    private final AsmifierPrinter root;
+
+    /**
+     * The printers of the methods, fields and annotations, one per name and id
+     */
+    private final List<AsmifierPrinter> printers;
+
+    private Writer out;
+
+    /**
+     * The characters of the line being written, kept by the root printer only
+     */
+    private char[] line;
+
+    /**
+     * The printer of the member or annotation being visited, whose text
+     * has to be written before anything this printer added after it
+     */
+    private AsmifierPrinter open;
+    private boolean ended;
+
+    private AsmifierPrinter() {
+        super(Opcodes.ASM9, "classWriter", 0);
+        this.root = this;
+        this.printers = new ArrayList<>();
+        this.line = new char[256];
+    }
+
+    private AsmifierPrinter(final AsmifierPrinter root, final String name, final int id) {
+        super(Opcodes.ASM9, name, id);
+        this.root = root;
+        this.printers = null;
+    }
+
+    /**
+     * @return the printer of this thread writing to the writer, to be closed once the class is visited.
+     * Failures to write are thrown as {@link UncheckedIOException}.
+     */
+    static AsmifierPrinter of(final Writer out) {
+        AsmifierPrinter printer = PRINTERS.get();
+
+        // Already printing on this thread, do not disturb it
+        if (printer.out != null) printer = new AsmifierPrinter();
+
+        printer.reset();
+        for (final AsmifierPrinter child : printer.printers) {
+            child.reset();
+            child.ended = true;
+        }
+        printer.out = out;
+        return printer;
+    }
+
+    /**
+     * Hands the printer back to the thread.  Anything left of a class
+     * that failed half way is dropped with the next {@link #of(Writer)}.
+     */
+    @Override
+    public void close() {
+        out = null;
+    }
+
+    private void reset() {
+        text.clear();
+        labelNames = null;
+        open = null;
+        ended = false;
+    }
+
+    @Override
+    protected ASMifier createASMifier(final String visitorVariableName, final int annotationVisitorId) {
+        // ASMifier adds the text leading up to the new printer first
+        open = null;
+        drain();
+
+        AsmifierPrinter printer = null;
+        for (final AsmifierPrinter candidate : root.printers) {
+            if (candidate.ended && candidate.id == annotationVisitorId && candidate.name.equals(visitorVariableName)) {
+                printer = candidate;
+                break;
+            }
+        }
+
+        if (printer == null) {
+            printer = new AsmifierPrinter(root, visitorVariableName, annotationVisitorId);
+            root.printers.add(printer);
+        }
+
+        printer.reset();
+        open = printer;
+        return printer;
+    }
+
+    @Override
+    public void visitClassEnd() {
+        super.visitClassEnd();
+        end();
+    }
+
+    @Override
+    public void visitModuleEnd() {
+        super.visitModuleEnd();
+        end();
+    }
+
+    @Override
+    public void visitAnnotationEnd() {
+        super.visitAnnotationEnd();
+        end();
+    }
+
+    @Override
+    public void visitRecordComponentEnd() {
+        super.visitRecordComponentEnd();
+        end();
+    }
+
+    @Override
+    public void visitFieldEnd() {
+        super.visitFieldEnd();
+        end();
+    }
+
+    @Override
+    public void visitMethodEnd() {
+        super.visitMethodEnd();
+        end();
+    }
+
+    @Override
+    public void visitCode() {
+        start();
+        write(name);
+        write(".visitCode();\n");
+    }
+
+    @Override
+    public void visitInsn(final int opcode) {
+        start();
+        write(name);
+        write(INSN[opcode]);
+    }
+
+    @Override
+    public void visitIntInsn(final int opcode, final int operand) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(INT_INSN[opcode]);
+        if (opcode == Opcodes.NEWARRAY) {
+            stringBuilder.append(TYPES[operand]);
+        } else {
+            stringBuilder.append(operand);
+        }
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitVarInsn(final int opcode, final int varIndex) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(VAR_INSN[opcode]).append(varIndex).append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitTypeInsn(final int opcode, final String type) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(TYPE_INSN[opcode]);
+        appendConstant(type);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(this.name).append(FIELD_INSN[opcode]);
+        appendConstant(owner);
+        stringBuilder.append(", ");
+        appendConstant(name);
+        stringBuilder.append(", ");
+        appendConstant(descriptor);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor,
+                                final boolean isInterface) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(this.name).append(METHOD_INSN[opcode]);
+        appendConstant(owner);
+        stringBuilder.append(", ");
+        appendConstant(name);
+        stringBuilder.append(", ");
+        appendConstant(descriptor);
+        stringBuilder.append(isInterface ? ", true);\n" : ", false);\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitJumpInsn(final int opcode, final Label label) {
+        start();
+        stringBuilder.setLength(0);
+        declareLabel(label);
+        stringBuilder.append(name).append(JUMP_INSN[opcode]);
+        appendLabel(label);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitLabel(final Label label) {
+        start();
+        stringBuilder.setLength(0);
+        declareLabel(label);
+        stringBuilder.append(name).append(".visitLabel(");
+        appendLabel(label);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitLdcInsn(final Object value) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(".visitLdcInsn(");
+        appendConstant(value);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitIincInsn(final int varIndex, final int increment) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(".visitIincInsn(").append(varIndex).append(", ").append(increment).append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitLineNumber(final int line, final Label start) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(".visitLineNumber(").append(line).append(", ");
+        appendLabel(start);
+        stringBuilder.append(");\n");
+        writeLine();
+    }
+
+    @Override
+    public void visitMaxs(final int maxStack, final int maxLocals) {
+        start();
+        stringBuilder.setLength(0);
+        stringBuilder.append(name).append(".visitMaxs(").append(maxStack).append(", ").append(maxLocals).append(");\n");
+        writeLine();
+    }
+
+    /**
+     * Any event of this printer means the member or annotation it opened
+     * before is done, so everything up to now can be written
+     */
+    private void start() {
+        open = null;
+        if (!text.isEmpty()) drain();
+    }
+
+    private void end() {
+        open = null;
+        drain();
+        ended = true;
+    }
+
+    /**
+     * Writes the text up to the printer still open, if any
+     */
+    private void drain() {
+        final int size = text.size();
+        for (int i = 0; i < size; i++) {
+            final Object item = text.get(i);
+            if (open != null && item == open.text) {
+                text.subList(0, i).clear();
+                return;
+            }
+            write(item);
+        }
+        text.clear();
+    }
+
+    private void write(final Object item) {
+        if (item instanceof List) {
+            for (final Object child : (List<?>) item) {
+                write(child);
+            }
+            ((List<?>) item).clear();
+        } else {
+            write(item.toString());
+        }
+    }
+
+    private void write(final String string) {
+        try {
+            root.out.write(string);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine() {
+        final int length = stringBuilder.length();
+        if (root.line.length < length) root.line = new char[Math.max(length, root.line.length * 2)];
+        stringBuilder.getChars(0, length, root.line, 0);
+        try {
+            root.out.write(root.line, 0, length);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String[] opcodes(final String prefix, final String suffix) {
+        final String[] strings = new String[OPCODES.length];
+        for (int i = 0; i < OPCODES.length; i++) {
+            strings[i] = prefix + OPCODES[i] + suffix;
+        }
+        return strings;
+    }
+}
@@ -19,6 +19,7 @@ import org.objectweb.asm.ClassVisitor;
 import org.tomitribe.util.IO;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 
 /**
@@ -56,4 +57,18 @@ public class Bytecode {
         cr.accept(classAdapter, ClassReader.EXPAND_FRAMES);
     }
 
+    /**
+     * Peeks at the magic number of a class file without consuming it
+     *
+     * @param in a stream that supports mark
+     */
+    public static boolean isClass(final InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return in.read() == 0xCA && in.read() == 0xFE && in.read() == 0xBA && in.read() == 0xBE;
+        } finally {
+            in.reset();
+        }
+    }
+
 }
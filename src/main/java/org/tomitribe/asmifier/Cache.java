@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.util.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of asmified output addressed by the content of the class.
+ *
+ * The key is a SHA-256 of the class bytes together with the tool version
+ * and the settings that shape the output, so the same library class found
+ * in several archives, or in several runs, is only converted once.  Each
+ * hit refreshes the modification time of the cached file and the least
+ * recently used files are evicted once the cache outgrows its size.
+ *
+ * Cached files are only ever added by an atomic move and are never written
+ * in place, which makes it safe to hardlink them into the output tree.
+ */
+public class Cache {
+
+    private final File dir;
+    private final long maxSize;
+    private final boolean link;
+    private final byte[] variant;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param dir where the cached output is kept
+     * @param maxSize the size in bytes above which the least recently used output is evicted
+     * @param link hardlink cached output into the destination instead of copying it
+     * @param settings the settings shaping the output, part of every key
+     */
+    public Cache(final File dir, final long maxSize, final boolean link, final String settings) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.link = link;
+        this.variant = ("asmify " + Manifest.version() + " " + settings + "\n").getBytes(StandardCharsets.UTF_8);
+
+        Files.createDirectories(dir.toPath());
+
+        try (final Stream<Path> files = Files.walk(dir.toPath())) {
+            files.filter(Files::isRegularFile).forEach(path -> size.addAndGet(path.toFile().length()));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public String key(final byte[] bytes) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(variant);
+            digest.update(bytes);
+            return Hex.toString(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Places the cached output for the key at the destination
+     *
+     * @return false if the key is not in the cache
+     */
+    public boolean get(final String key, final Path dest) throws IOException {
+        final Path cached = path(key);
+
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final NoSuchFileException e) {
+            return false;
+        }
+
+        Files.deleteIfExists(dest);
+
+        if (link) {
+            try {
+                Files.createLink(dest, cached);
+                return true;
+            } catch (final FileSystemException | UnsupportedOperationException e) {
+                // different file stores, fall back to copying
+            }
+        }
+
+        try {
+            Files.copy(cached, dest, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final NoSuchFileException e) {
+            // evicted in the meantime
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the cached output for the key or null if it is not in the cache
+     */
+    public byte[] read(final String key) throws IOException {
+        final Path cached = path(key);
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+            return Files.readAllBytes(cached);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copies the freshly written output into the cache
+     */
+    public void put(final String key, final Path output) throws IOException {
+        store(key, tmp -> Files.copy(output, tmp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    public void put(final String key, final byte[] output) throws IOException {
+        store(key, tmp -> Files.write(tmp, output));
+    }
+
+    private void store(final String key, final Writer writer) throws IOException {
+        final Path cached = path(key);
+        if (Files.exists(cached)) return;
+
+        Files.createDirectories(cached.getParent());
+
+        final Path tmp = Files.createTempFile(cached.getParent(), key, ".tmp");
+        try {
+            writer.write(tmp);
+            Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        if (size.addAndGet(Files.size(cached)) > maxSize) evict();
+    }
+
+    /**
+     * Deletes the least recently used output until the cache is
+     * back under nine tenths of its maximum size
+     */
+    private synchronized void evict() throws IOException {
+        if (size.get() <= maxSize) return;
+
+        final List<Cached> files = new ArrayList<>();
+        try (final Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.forEach(path -> {
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        files.add(new Cached(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                } catch (final IOException e) {
+                    // removed concurrently
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        files.sort(Comparator.comparingLong(cached -> cached.lastUsed));
+
+        long total = files.stream().mapToLong(cached -> cached.size).sum();
+        final long target = maxSize / 10 * 9;
+
+        for (final Cached cached : files) {
+            if (total <= target) break;
+            if (Files.deleteIfExists(cached.path)) total -= cached.size;
+        }
+
+        size.set(total);
+    }
+
+    private Path path(final String key) {
+        return new File(new File(dir, key.substring(0, 2)), key.substring(2) + ".asm").toPath();
+    }
+
+    private interface Writer {
+        void write(Path tmp) throws IOException;
+    }
+
+    private static class Cached {
+        private final Path path;
+        private final long size;
+        private final long lastUsed;
+
+        Cached(final Path path, final long size, final long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
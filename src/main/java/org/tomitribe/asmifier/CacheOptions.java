@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.Options;
+import org.tomitribe.util.Size;
+import org.tomitribe.util.SizeUnit;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where and how the output of classes is cached between runs
+ */
+@Options
+public class CacheOptions {
+
+    private final File dir;
+    private final Size size;
+    private final boolean link;
+
+    public CacheOptions(@Option("cache") final File dir,
+                        @Option("cache-size") @Default("1gb") final Size size,
+                        @Option("cache-link") final boolean link) {
+        this.dir = dir;
+        this.size = size;
+        this.link = link;
+    }
+
+    /**
+     * @param settings the settings shaping the output
+     * @return the cache or null if no cache directory was given
+     */
+    public Cache cache(final String settings) throws IOException {
+        if (dir == null) return null;
+        return new Cache(dir, size.getSize(SizeUnit.BYTES), link, settings);
+    }
+}
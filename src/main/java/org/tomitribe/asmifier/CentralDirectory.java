@@ -0,0 +1,646 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Random access to a zip archive through its central directory.
+ *
+ * All entries are listed up front with their sizes, so each one can be
+ * read into a buffer of the exact size.  Reads are positional and do not
+ * share any state, so several threads may inflate separate entries of
+ * the same archive at once.
+ *
+ * Data prepended to the zip (self-extracting stubs, jmod headers) is
+ * tolerated the same way {@link java.util.zip.ZipFile} tolerates it.
+ */
+public class CentralDirectory implements Closeable {
+
+    private static final int LOCAL = 0x04034b50;
+    private static final int CENTRAL = 0x02014b50;
+    private static final int END = 0x06054b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final Source source;
+    private final List<Entry> entries;
+
+    private CentralDirectory(final Source source) throws IOException {
+        this(source, readEntries(source));
+    }
+
+    private CentralDirectory(final Source source, final List<Entry> entries) {
+        this.source = source;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public static CentralDirectory open(final File file) throws IOException {
+        return open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Opening a temporary file with {@link StandardOpenOption#DELETE_ON_CLOSE}
+     * ties its lifetime to this directory
+     */
+    public static CentralDirectory open(final File file, final OpenOption... options) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), options);
+        try {
+            return new CentralDirectory(new ChannelSource(channel));
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static CentralDirectory open(final byte[] bytes, final int length) throws IOException {
+        return new CentralDirectory(new ArraySource(bytes, length));
+    }
+
+    /**
+     * Reads an entry whose place in the archive is already known without
+     * reading the central directory.  The CRC check catches an entry that
+     * is no longer where it was.
+     */
+    public static byte[] read(final File file, final Entry entry) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (final CentralDirectory directory = new CentralDirectory(new ChannelSource(channel), Collections.emptyList())) {
+            return directory.read(entry);
+        }
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Inflates the entry into a buffer of exactly its uncompressed size
+     */
+    public byte[] read(final Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("Entry too large to buffer: " + entry.name);
+        }
+
+        final byte[] bytes = new byte[(int) entry.size];
+        final long data = dataOffset(entry);
+
+        if (entry.method == STORED) {
+            source.read(data, bytes, 0, bytes.length);
+        } else {
+            final byte[] compressed = new byte[(int) Math.min(entry.compressedSize, Integer.MAX_VALUE)];
+            source.read(data, compressed, 0, compressed.length);
+            inflate(entry, compressed, bytes);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("Invalid CRC for entry: " + entry.name);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Streams the entry without buffering it as a whole, checking its
+     * CRC-32 once it has been read to the end
+     */
+    public InputStream open(final Entry entry) throws IOException {
+        final long data = dataOffset(entry);
+        if (entry.method == STORED) return new CheckedStream(entry, new SourceInputStream(source, data, entry.compressedSize, false));
+
+        // the nowrap inflater may ask for one extra byte at the very end
+        final InputStream raw = new SourceInputStream(source, data, entry.compressedSize, true);
+        return new CheckedStream(entry, new InflaterInputStream(raw, new Inflater(true), 8192) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        });
+    }
+
+    /**
+     * Copies the entry to the channel as it is.  A stored entry of an
+     * archive on disk is handed to the file system without passing
+     * through the heap, a deflated one is inflated through a fixed buffer.
+     *
+     * Either way the CRC-32 is only checked once the bytes were written, a
+     * stored entry after it was copied and a deflated one at its end.  When
+     * this throws, the target may hold some or all of a corrupt entry and
+     * the caller has to discard it.
+     */
+    public void transferTo(final Entry entry, final WritableByteChannel target) throws IOException {
+        if (entry.method == STORED) {
+            if (entry.size != entry.compressedSize) throw new ZipException("Truncated entry: " + entry.name);
+            final long data = dataOffset(entry);
+            source.transferTo(data, entry.compressedSize, target);
+            if (source.crc(data, entry.compressedSize) != entry.crc) throw new ZipException("Invalid CRC for entry: " + entry.name);
+            return;
+        }
+
+        try (final InputStream in = open(entry)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private long dataOffset(final Entry entry) throws IOException {
+        if (entry.method != STORED && entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for entry: " + entry.name);
+        }
+
+        final byte[] header = new byte[30];
+        source.read(entry.offset, header, 0, header.length);
+        if (int32(header, 0) != LOCAL) {
+            throw new ZipException("Invalid local header for entry: " + entry.name);
+        }
+        return entry.offset + header.length + int16(header, 26) + int16(header, 28);
+    }
+
+    private static void inflate(final Entry entry, final byte[] compressed, final byte[] bytes) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length) {
+                final int n = inflater.inflate(bytes, length, bytes.length - length);
+                if (n == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) break;
+                    if (inflater.needsInput()) {
+                        // the nowrap inflater may ask for one extra byte at the very end
+                        inflater.setInput(new byte[1]);
+                    }
+                }
+                length += n;
+            }
+            if (length != bytes.length) {
+                throw new ZipException("Truncated entry: " + entry.name);
+            }
+        } catch (final DataFormatException e) {
+            throw new ZipException("Invalid deflate data for entry: " + entry.name);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static List<Entry> readEntries(final Source source) throws IOException {
+        final long size = source.size();
+
+        // The end record is 22 bytes plus a comment of at most 64k
+        final int tail = (int) Math.min(size, 22 + 0xFFFF);
+        final byte[] buffer = new byte[tail];
+        source.read(size - tail, buffer, 0, tail);
+
+        int end = -1;
+        for (int i = tail - 22; i >= 0; i--) {
+            if (int32(buffer, i) == END) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new ZipException("No central directory found");
+
+        final long endPosition = size - tail + end;
+        long count = int16(buffer, end + 10);
+        long length = uint32(buffer, end + 12);
+        long offset = uint32(buffer, end + 16);
+        long position = endPosition;
+
+        if (count == 0xFFFF || length == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            final byte[] locator = new byte[20];
+            source.read(endPosition - 20, locator, 0, 20);
+            if (int32(locator, 0) != ZIP64_LOCATOR) throw new ZipException("Missing zip64 end locator");
+
+            // The zip64 end record sits right before its locator, so anything prepended
+            // to the archive is the distance between there and the position recorded
+            final long recorded = int64(locator, 8);
+            final long prefix = endPosition - 20 - 56 - recorded;
+            final byte[] zip64 = new byte[56];
+            position = recorded + Math.max(prefix, 0);
+            source.read(position, zip64, 0, zip64.length);
+
+            // A record carrying extensible data is longer, but then is where it was recorded
+            if (int32(zip64, 0) != ZIP64_END && position != recorded) {
+                position = recorded;
+                source.read(position, zip64, 0, zip64.length);
+            }
+            if (int32(zip64, 0) != ZIP64_END) throw new ZipException("Invalid zip64 end record");
+
+            count = int64(zip64, 32);
+            length = int64(zip64, 40);
+            offset = int64(zip64, 48);
+        }
+
+        // Anything prepended to the archive shifts every recorded offset
+        final long base = position - length - offset;
+        if (base < 0 || length > Integer.MAX_VALUE) throw new ZipException("Invalid central directory");
+
+        final byte[] cd = new byte[(int) length];
+        source.read(base + offset, cd, 0, cd.length);
+
+        final List<Entry> entries = new ArrayList<>((int) Math.min(count, 0xFFFF));
+
+        int i = 0;
+        while (i + 46 <= cd.length && int32(cd, i) == CENTRAL) {
+            final int flags = int16(cd, i + 8);
+            final int method = int16(cd, i + 10);
+            final long crc = uint32(cd, i + 16);
+            long compressedSize = uint32(cd, i + 20);
+            long uncompressedSize = uint32(cd, i + 24);
+            final int nameLength = int16(cd, i + 28);
+            final int extraLength = int16(cd, i + 30);
+            final int commentLength = int16(cd, i + 32);
+            long local = uint32(cd, i + 42);
+
+            final String name = new String(cd, i + 46, nameLength, StandardCharsets.UTF_8);
+
+            // zip64 extra field, values are only present when the 32-bit field is maxed out
+            int extra = i + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = int16(cd, extra);
+                final int dataSize = int16(cd, extra + 2);
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (uncompressedSize == 0xFFFFFFFFL) {
+                        uncompressedSize = int64(cd, field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = int64(cd, field);
+                        field += 8;
+                    }
+                    if (local == 0xFFFFFFFFL) {
+                        local = int64(cd, field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+
+            if ((flags & 1) != 0) throw new ZipException("Encrypted entry: " + name);
+
+            entries.add(new Entry(name, method, crc, uncompressedSize, compressedSize, base + local));
+            i += 46 + nameLength + extraLength + commentLength;
+        }
+
+        if (entries.size() != count && count != 0xFFFF) {
+            throw new ZipException("Expected " + count + " entries, found " + entries.size());
+        }
+
+        return entries;
+    }
+
+    private static int int16(final byte[] b, final int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+    }
+
+    private static int int32(final byte[] b, final int i) {
+        return int16(b, i) | int16(b, i + 2) << 16;
+    }
+
+    private static long uint32(final byte[] b, final int i) {
+        return int32(b, i) & 0xFFFFFFFFL;
+    }
+
+    private static long int64(final byte[] b, final int i) {
+        return uint32(b, i) | uint32(b, i + 4) << 32;
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long offset;
+
+        public Entry(final String name, final int method, final long crc, final long size,
+                     final long compressedSize, final long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return the position of the local file header within the source
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Positional, thread-safe access to the bytes of an archive
+     */
+    interface Source extends Closeable {
+        long size() throws IOException;
+
+        void read(long position, byte[] bytes, int offset, int length) throws IOException;
+
+        void transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+        long crc(long position, long count) throws IOException;
+    }
+
+    private static class ChannelSource implements Source {
+        private final FileChannel channel;
+
+        ChannelSource(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public void read(long position, final byte[] bytes, final int offset, final int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) throw new EOFException("Unexpected end of archive");
+                position += read;
+            }
+        }
+
+        /**
+         * Falls back to copying through a buffer once the channel transfers
+         * nothing, as it does at the end of the archive and may do for
+         * targets it cannot transfer to
+         */
+        @Override
+        public void transferTo(long position, long count, final WritableByteChannel target) throws IOException {
+            while (count > 0) {
+                final long transferred = channel.transferTo(position, count, target);
+                if (transferred <= 0) {
+                    copy(position, count, target);
+                    return;
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+
+        private void copy(long position, long count, final WritableByteChannel target) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+            while (count > 0) {
+                buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+                final int read = channel.read(buffer, position);
+                if (read < 0) throw new EOFException("Unexpected end of archive");
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                position += read;
+                count -= read;
+            }
+        }
+
+        /**
+         * Maps the range rather than reading it, the pages were just read by the transfer
+         */
+        @Override
+        public long crc(long position, long count) throws IOException {
+            final CRC32 crc = new CRC32();
+            while (count > 0) {
+                final long length = Math.min(count, 64 * 1024 * 1024);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                position += length;
+                count -= length;
+            }
+            return crc.getValue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class ArraySource implements Source {
+        private final byte[] bytes;
+        private final int length;
+
+        ArraySource(final byte[] bytes, final int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public void read(final long position, final byte[] dest, final int offset, final int count) throws IOException {
+            if (position < 0 || position + count > length) throw new EOFException("Unexpected end of archive");
+            System.arraycopy(bytes, (int) position, dest, offset, count);
+        }
+
+        @Override
+        public void transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+            if (position < 0 || position + count > length) throw new EOFException("Unexpected end of archive");
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, (int) position, (int) count);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        }
+
+        @Override
+        public long crc(final long position, final long count) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, (int) position, (int) count);
+            return crc.getValue();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Checks the size and CRC-32 of the entry once it has been read to the end
+     */
+    private static class CheckedStream extends FilterInputStream {
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long size;
+
+        CheckedStream(final Entry entry, final InputStream in) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b < 0) {
+                check();
+            } else {
+                crc.update(b);
+                size++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read < 0) {
+                check();
+            } else {
+                crc.update(b, off, read);
+                size += read;
+            }
+            return read;
+        }
+
+        /**
+         * Skipped bytes are read so they are part of the checksum
+         */
+        @Override
+        public long skip(final long n) throws IOException {
+            final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                final int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void check() throws IOException {
+            if (size != entry.size) throw new ZipException("Truncated entry: " + entry.name);
+            if (crc.getValue() != entry.crc) throw new ZipException("Invalid CRC for entry: " + entry.name);
+        }
+    }
+
+    private static class SourceInputStream extends InputStream {
+        private final Source source;
+        private final byte[] one = new byte[1];
+        private long position;
+        private long remaining;
+        private boolean pad;
+
+        SourceInputStream(final Source source, final long position, final long length, final boolean pad) {
+            this.source = source;
+            this.position = position;
+            this.remaining = length;
+            this.pad = pad;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining <= 0) {
+                if (!pad) return -1;
+                pad = false;
+                b[off] = 0;
+                return 1;
+            }
+            final int n = (int) Math.min(len, remaining);
+            source.read(position, b, off, n);
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+}
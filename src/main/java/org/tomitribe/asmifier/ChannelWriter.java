@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes text as UTF-8 straight into a channel.
+ *
+ * The encoder and both buffers belong to the thread and are reused for
+ * every file it writes, so converting thousands of classes does not
+ * allocate a new encoding pipeline for each of them.  Closing the writer
+ * flushes it but leaves the channel open.
+ */
+class ChannelWriter extends Writer {
+
+    private static final ThreadLocal<ChannelWriter> WRITERS = ThreadLocal.withInitial(ChannelWriter::new);
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+    private final ByteBuffer bytes = ByteBuffer.allocate(32 * 1024);
+
+    private WritableByteChannel channel;
+
+    private ChannelWriter() {
+    }
+
+    static ChannelWriter of(final WritableByteChannel channel) {
+        ChannelWriter writer = WRITERS.get();
+
+        // Already writing on this thread, do not disturb it
+        if (writer.channel != null) writer = new ChannelWriter();
+
+        writer.channel = channel;
+        writer.encoder.reset();
+        writer.chars.clear();
+        writer.bytes.clear();
+        return writer;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (!chars.hasRemaining()) encode(false);
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(final char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!chars.hasRemaining()) encode(false);
+            final int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(final String str, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!chars.hasRemaining()) encode(false);
+            final int n = Math.min(len, chars.remaining());
+            final int position = chars.position();
+            str.getChars(off, off + n, chars.array(), chars.arrayOffset() + position);
+            chars.position(position + n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Copies a StringBuilder straight into the buffer rather than through a String
+     */
+    @Override
+    public Writer append(final CharSequence csq) throws IOException {
+        if (!(csq instanceof StringBuilder)) return super.append(csq);
+
+        final StringBuilder builder = (StringBuilder) csq;
+        int off = 0;
+        int len = builder.length();
+        while (len > 0) {
+            if (!chars.hasRemaining()) encode(false);
+            final int n = Math.min(len, chars.remaining());
+            final int position = chars.position();
+            builder.getChars(off, off + n, chars.array(), chars.arrayOffset() + position);
+            chars.position(position + n);
+            off += n;
+            len -= n;
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            encode(true);
+            while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+        } finally {
+            channel = null;
+        }
+    }
+
+    private void encode(final boolean endOfInput) throws IOException {
+        if (channel == null) throw new IOException("Writer closed");
+
+        chars.flip();
+        while (true) {
+            final CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        // a lone high surrogate may remain until the next write
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
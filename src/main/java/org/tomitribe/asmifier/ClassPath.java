@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.util.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Finds classes on a class path of jars and directories, the first one
+ * holding the class winning as it would for the JVM.
+ *
+ * Listing the central directory of every jar for each lookup adds up on a
+ * class path of hundreds of jars, so the class entries of the jars are kept
+ * in an index file per class path, by default in ~/.asmify/classpath.  Each
+ * jar is recorded with its modification time and size, only jars whose time
+ * or size changed are listed again, and a class is read straight from its
+ * recorded place in the jar.
+ */
+public class ClassPath {
+
+    private static final String FORMAT = "asmify-classpath 1";
+
+    private final List<File> elements;
+    private final File index;
+
+    /**
+     * The class entries of the jars by their absolute path
+     */
+    private final Map<String, Jar> jars = new LinkedHashMap<>();
+    private boolean loaded;
+    private boolean changed;
+
+    /**
+     * @param elements the jars and directories in the order they are searched
+     * @param dir where the index files are kept, or null to list the jars on every lookup
+     */
+    public ClassPath(final List<File> elements, final File dir) {
+        this.elements = elements;
+        this.index = dir == null ? null : new File(dir, key(elements));
+    }
+
+    /**
+     * @return the default location of the index files, ~/.asmify/classpath
+     */
+    public static File dir() {
+        return new File(new File(System.getProperty("user.home"), ".asmify"), "classpath");
+    }
+
+    /**
+     * Splits a class path on the path separator.  As for the java command,
+     * an element ending with * stands for every jar in that directory.
+     */
+    public static List<File> parse(final String classpath) {
+        final List<File> files = new ArrayList<>();
+        for (final String element : classpath.split(File.pathSeparator)) {
+            if (element.isEmpty()) continue;
+
+            if (!element.equals("*") && !element.endsWith(File.separator + "*") && !element.endsWith("/*")) {
+                files.add(Daemon.resolve(element));
+                continue;
+            }
+
+            final File dir = Daemon.resolve(element.length() == 1 ? "." : element.substring(0, element.length() - 1));
+            final File[] jars = dir.listFiles((d, name) -> name.regionMatches(true, name.length() - 4, ".jar", 0, 4));
+            if (jars == null) continue;
+            Arrays.sort(jars);
+            files.addAll(Arrays.asList(jars));
+        }
+        return files;
+    }
+
+    /**
+     * @param className a dotted name such as org.example.Orange, an internal name or a class file path
+     * @return the path of the class file within a jar or directory
+     */
+    public static String path(final String className) {
+        if (className.endsWith(".class")) return className;
+        if (className.indexOf('/') >= 0) return className + ".class";
+        return className.replace('.', '/') + ".class";
+    }
+
+    /**
+     * @return the bytes of the class or null if it is on none of the jars and directories
+     */
+    public byte[] read(final String className) throws IOException {
+        final String path = path(className);
+        load();
+
+        try {
+            for (final File element : elements) {
+                if (element.isDirectory()) {
+                    final File file = new File(element, path);
+                    if (file.isFile()) return Files.readAllBytes(file.toPath());
+                    continue;
+                }
+
+                if (!element.isFile()) continue;
+
+                final CentralDirectory.Entry entry = entries(element).get(path);
+                if (entry == null) continue;
+
+                try {
+                    return CentralDirectory.read(element, entry);
+                } catch (final ZipException e) {
+                    // Rewritten with the same time and size, list it again
+                    jars.remove(element.getAbsolutePath());
+                    final CentralDirectory.Entry moved = entries(element).get(path);
+                    if (moved != null) return CentralDirectory.read(element, moved);
+                }
+            }
+            return null;
+        } finally {
+            save();
+        }
+    }
+
+    /**
+     * @return the class entries of the jar, from the index while its time and size are unchanged
+     */
+    private Map<String, CentralDirectory.Entry> entries(final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long modified = file.lastModified();
+        final long size = file.length();
+
+        final Jar jar = jars.get(path);
+        if (jar != null && jar.modified == modified && jar.size == size) return jar.entries;
+
+        final Map<String, CentralDirectory.Entry> entries = new HashMap<>();
+        try (final CentralDirectory directory = CentralDirectory.open(file)) {
+            for (final CentralDirectory.Entry entry : directory.entries()) {
+                if (Is.Clazz.accept(entry.getName())) entries.putIfAbsent(entry.getName(), entry);
+            }
+        } catch (final ZipException e) {
+            // Not an archive, so there are no classes in it
+        }
+
+        jars.put(path, new Jar(modified, size, entries));
+        changed = true;
+        return entries;
+    }
+
+    private void load() throws IOException {
+        if (loaded) return;
+        loaded = true;
+
+        if (index == null || !index.isFile()) return;
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.toPath())))) {
+            if (!FORMAT.equals(in.readUTF())) return;
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                final long modified = in.readLong();
+                final long size = in.readLong();
+
+                final int classes = in.readInt();
+                final Map<String, CentralDirectory.Entry> entries = new HashMap<>(classes * 4 / 3 + 1);
+                for (int c = 0; c < classes; c++) {
+                    final String name = in.readUTF();
+                    entries.put(name, new CentralDirectory.Entry(name, in.readUnsignedShort(), in.readInt() & 0xFFFFFFFFL,
+                            in.readLong(), in.readLong(), in.readLong()));
+                }
+                jars.put(path, new Jar(modified, size, entries));
+            }
+        } catch (final IOException e) {
+            // A damaged index, the jars are listed again
+            jars.clear();
+        }
+    }
+
+    /**
+     * Replaces the index atomically, so concurrent lookups read either the old or the new one
+     */
+    private void save() throws IOException {
+        if (index == null || !changed) return;
+        changed = false;
+
+        final Path dir = index.getParentFile().toPath();
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, index.getName(), ".tmp");
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(FORMAT);
+                out.writeInt(jars.size());
+                for (final Map.Entry<String, Jar> jar : jars.entrySet()) {
+                    out.writeUTF(jar.getKey());
+                    out.writeLong(jar.getValue().modified);
+                    out.writeLong(jar.getValue().size);
+                    out.writeInt(jar.getValue().entries.size());
+                    for (final CentralDirectory.Entry entry : jar.getValue().entries.values()) {
+                        out.writeUTF(entry.getName());
+                        out.writeShort(entry.getMethod());
+                        out.writeInt((int) entry.getCrc());
+                        out.writeLong(entry.getSize());
+                        out.writeLong(entry.getCompressedSize());
+                        out.writeLong(entry.getOffset());
+                    }
+                }
+            }
+            Files.move(tmp, index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the name of the index file of the class path
+     */
+    private static String key(final List<File> elements) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (final File element : elements) {
+                digest.update(element.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return Hex.toString(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Jar {
+        private final long modified;
+        private final long size;
+        private final Map<String, CentralDirectory.Entry> entries;
+
+        Jar(final long modified, final long size, final Map<String, CentralDirectory.Entry> entries) {
+            this.modified = modified;
+            this.size = size;
+            this.entries = entries;
+        }
+    }
+}
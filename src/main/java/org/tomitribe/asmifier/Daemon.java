@@ -0,0 +1,421 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.Main;
+import org.tomitribe.crest.api.Exit;
+import org.tomitribe.crest.cmds.CommandFailedException;
+import org.tomitribe.crest.environments.SystemEnvironment;
+import org.tomitribe.util.Hex;
+
+import java.beans.PropertyEditorManager;
+import java.beans.PropertyEditorSupport;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a warm JVM running commands on behalf of short-lived clients.
+ *
+ * The daemon listens on an ephemeral loopback port and writes the port
+ * together with a random token to a file only readable by the user,
+ * by default ~/.asmify/daemon.  A client must present the token, so
+ * other users of the machine cannot run commands through it.
+ *
+ * A client sends its working directory and arguments and receives the
+ * output and error streams of the command followed by its exit code.
+ * Relative files are resolved against the working directory of the
+ * client.  A daemon of another version asks the client to run the
+ * command itself, as does the client when nothing acknowledges the
+ * command in time, such as when a stale file names a port now used
+ * by another service.
+ */
+public class Daemon implements Closeable {
+
+    private static final byte OUT = 'o';
+    private static final byte ERR = 'e';
+    private static final byte EXIT = 'x';
+    private static final byte DECLINE = 'd';
+    private static final byte ACCEPT = 'a';
+    private static final int HANDSHAKE_TIMEOUT = 2000;
+    private static final String STOP = "--stop";
+
+    private static final ThreadLocal<File> WORKING_DIRECTORY = new ThreadLocal<>();
+
+    private final Main main;
+    private final File file;
+    private final String token;
+    private final ServerSocket server;
+    private final ExecutorService executor;
+
+    public Daemon(final Main main, final File file) throws IOException {
+        this.main = main;
+        this.file = file;
+        this.token = token();
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "asmify-daemon-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        PropertyEditorManager.registerEditor(File.class, WorkingDirectoryFile.class);
+
+        publish();
+    }
+
+    /**
+     * @return the default location of the port file, ~/.asmify/daemon
+     */
+    public static File file() {
+        return new File(new File(System.getProperty("user.home"), ".asmify"), "daemon");
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves clients until stopped by a client or closed
+     */
+    public void run() throws IOException {
+        try {
+            while (!server.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (final SocketException e) {
+                    // closed
+                    break;
+                }
+                executor.execute(() -> serve(socket));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            server.close();
+        } finally {
+            executor.shutdown();
+            unpublish();
+        }
+    }
+
+    /**
+     * Resolves relative paths against the working directory of the client
+     * whose command runs on this thread
+     */
+    public static File resolve(final String path) {
+        final File file = new File(path);
+        final File cwd = WORKING_DIRECTORY.get();
+        if (cwd == null || file.isAbsolute()) return file;
+        return new File(cwd, path);
+    }
+
+    private void serve(final Socket socket) {
+        try (final Socket client = socket;
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+
+            final byte[] presented = in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(presented, token.getBytes(StandardCharsets.UTF_8))) return;
+
+            final String version = in.readUTF();
+            final String cwd = in.readUTF();
+            final String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            if (!version.equals(Manifest.version())) {
+                out.writeByte(DECLINE);
+                out.flush();
+                return;
+            }
+
+            if (args.length == 1 && STOP.equals(args[0])) {
+                out.writeByte(EXIT);
+                out.writeInt(0);
+                out.flush();
+                close();
+                return;
+            }
+
+            // The command may be silent for a long time, the client must not give up on it
+            out.writeByte(ACCEPT);
+            out.flush();
+
+            final int status = exec(new File(cwd), args, out);
+
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        } catch (final IOException e) {
+            // the client went away
+        }
+    }
+
+    private int exec(final File cwd, final String[] args, final DataOutputStream out) {
+        final PrintStream stdout = new PrintStream(new Frames(OUT, out), false);
+        final PrintStream stderr = new PrintStream(new Frames(ERR, out), false);
+
+        WORKING_DIRECTORY.set(cwd);
+        try {
+            main.main(new Environment(stdout, stderr), args);
+            return 0;
+        } catch (final Throwable t) {
+            final Throwable cause = t instanceof CommandFailedException && t.getCause() != null ? t.getCause() : t;
+            final Exit exit = cause.getClass().getAnnotation(Exit.class);
+            if (exit != null) {
+                stderr.println(cause.getMessage());
+                return exit.value();
+            }
+            cause.printStackTrace(stderr);
+            return 1;
+        } finally {
+            WORKING_DIRECTORY.remove();
+            stdout.flush();
+            stderr.flush();
+        }
+    }
+
+    /**
+     * Runs the command in the daemon if one is running
+     *
+     * @return the exit code of the command or null if no daemon could run it
+     */
+    public static Integer forward(final File file, final String cwd, final String[] args,
+                                  final OutputStream stdout, final OutputStream stderr) throws IOException {
+        if (!file.isFile()) return null;
+
+        final String[] published = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        if (published.length != 2) return null;
+
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(published[0])), 1000);
+        } catch (final IOException | NumberFormatException e) {
+            // not running anymore
+            socket.close();
+            return null;
+        }
+
+        try (final Socket client = socket;
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+
+            out.writeUTF(published[1]);
+            out.writeUTF(Manifest.version());
+            out.writeUTF(cwd);
+            out.writeInt(args.length);
+            for (final String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            // Whatever listens on a stale port may never answer
+            client.setSoTimeout(HANDSHAKE_TIMEOUT);
+            final byte reply;
+            try {
+                reply = in.readByte();
+            } catch (final IOException e) {
+                // wrong token, the daemon is shutting down or it is not a daemon, nothing was run
+                return null;
+            }
+
+            if (reply == EXIT) return in.readInt();
+            if (reply != ACCEPT) return null;
+            client.setSoTimeout(0);
+
+            final byte[] buffer = new byte[32 * 1024];
+            while (true) {
+                final byte kind = in.readByte();
+                if (kind == EXIT) return in.readInt();
+
+                final OutputStream target = kind == OUT ? stdout : stderr;
+                int length = in.readInt();
+                while (length > 0) {
+                    final int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (read < 0) throw new EOFException("Daemon closed the connection");
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    /**
+     * Asks the daemon to stop
+     *
+     * @return false if no daemon was running
+     */
+    public static boolean stop(final File file) throws IOException {
+        final Integer status = forward(file, "", new String[]{STOP}, OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+        return status != null;
+    }
+
+    /**
+     * Writes the port and token readable by the owner only, atomically
+     * so a client never sees half a file
+     */
+    private void publish() throws IOException {
+        final Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+            restrict(dir, "rwx------");
+        }
+
+        final Path tmp = Files.createTempFile(dir, "daemon", ".tmp");
+        try {
+            restrict(tmp, "rw-------");
+            Files.write(tmp, (getPort() + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static void restrict(final Path path, final String permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+        } catch (final UnsupportedOperationException e) {
+            final File file = path.toFile();
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+    }
+
+    /**
+     * Removes the port file unless another daemon has replaced it since
+     */
+    private void unpublish() throws IOException {
+        try {
+            final String published = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            if (published.contains(token)) Files.deleteIfExists(file.toPath());
+        } catch (final IOException e) {
+            // already gone
+        }
+    }
+
+    private static String token() {
+        final byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Hex.toString(bytes);
+    }
+
+    /**
+     * Sends everything written as frames of the given kind
+     */
+    private static class Frames extends OutputStream {
+        private final byte kind;
+        private final DataOutputStream out;
+
+        Frames(final byte kind, final DataOutputStream out) {
+            this.kind = kind;
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) return;
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    private static class Environment extends SystemEnvironment {
+        private final PrintStream out;
+        private final PrintStream err;
+
+        Environment(final PrintStream out, final PrintStream err) {
+            this.out = out;
+            this.err = err;
+        }
+
+        @Override
+        public PrintStream getOutput() {
+            return out;
+        }
+
+        @Override
+        public PrintStream getError() {
+            return err;
+        }
+
+        @Override
+        public InputStream getInput() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    /**
+     * Converts command line arguments to files relative to the client
+     */
+    public static class WorkingDirectoryFile extends PropertyEditorSupport {
+        @Override
+        public void setAsText(final String text) {
+            setValue(resolve(text));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every entry to its own file, mirroring the archive as a directory tree.
+ *
+ * Each file is written under a temporary name next to it and renamed into
+ * place once complete, so a run that is killed never leaves a truncated
+ * file behind.  A temporary file left by a killed run is replaced when
+ * the entry is written again.
+ */
+public class DirectoryOutput implements Output {
+
+    private final File root;
+
+    public DirectoryOutput(final File root) {
+        this.root = root;
+    }
+
+    @Override
+    public Entry entry(final String path) {
+        final File file = new File(root, path);
+        return new Entry() {
+            @Override
+            public void asmify(final byte[] bytes, final Selector selector, final Cache cache, final Stats stats) throws IOException {
+                mkparent(file);
+                final Path tmp = tmp(file);
+                try {
+                    Asmifier.write(bytes, tmp, selector, cache, stats);
+                    move(tmp, file);
+                } catch (final IOException | RuntimeException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void copy(final byte[] bytes) throws IOException {
+                mkparent(file);
+                final Path tmp = tmp(file);
+                try {
+                    Files.write(tmp, bytes);
+                    move(tmp, file);
+                } catch (final IOException | RuntimeException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void copy(final InputStream in, final long crc, final long size) throws IOException {
+                mkparent(file);
+                final Path tmp = tmp(file);
+                try {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    move(tmp, file);
+                } catch (final IOException | RuntimeException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+            }
+
+            /**
+             * A stored entry goes from the archive to the file without
+             * passing through the heap
+             */
+            @Override
+            public void copy(final CentralDirectory directory, final CentralDirectory.Entry entry) throws IOException {
+                mkparent(file);
+                final Path tmp = tmp(file);
+                try {
+                    try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        directory.transferTo(entry, channel);
+                    }
+                    move(tmp, file);
+                } catch (final IOException | RuntimeException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean exists(final String path) {
+        return new File(root, path).exists();
+    }
+
+    /**
+     * Deletes the file and any directories left empty by it
+     */
+    @Override
+    public void delete(final String path) throws IOException {
+        final File file = new File(root, path);
+        Files.deleteIfExists(file.toPath());
+
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(root)) {
+            final String[] children = parent.list();
+            if (children == null || children.length > 0 || !parent.delete()) break;
+            parent = parent.getParentFile();
+        }
+    }
+
+    @Override
+    public File directory() {
+        return root;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static Path tmp(final File file) {
+        return new File(file.getParentFile(), "." + file.getName() + ".asmify-tmp").toPath();
+    }
+
+    private static void move(final Path tmp, final File file) throws IOException {
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Unlike {@link org.tomitribe.util.Files#mkdirs(File, String...)} this
+     * tolerates another worker creating the same directory concurrently
+     */
+    static void mkparent(final File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+    }
+}
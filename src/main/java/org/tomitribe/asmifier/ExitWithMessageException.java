@@ -20,4 +20,8 @@ public class ExitWithMessageException extends RuntimeException {
     public ExitWithMessageException(final Exception e) {
         super(e.getMessage(), e);
     }
+
+    public ExitWithMessageException(final String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude globs matched against the path of an entry within
+ * its archive.
+ *
+ * A path is accepted when it matches any include, or there are no
+ * includes, and matches no exclude.  In a glob {@code **} matches any
+ * number of directories, {@code *} anything but a slash and {@code ?}
+ * a single character other than a slash.  A glob without a slash only
+ * looks at the last name of the path, so {@code *.properties} matches
+ * properties files in any directory.
+ *
+ *     com/ourco/**
+ *     WEB-INF/lib/ourco-*.jar
+ *     *Test.class
+ */
+public class Filter {
+
+    public static final Filter ALL = new Filter(Collections.emptyList(), Collections.emptyList());
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    public Filter(final Collection<String> includes, final Collection<String> excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    public boolean accept(final String path) {
+        if (!includes.isEmpty() && !matches(includes, path)) return false;
+        return !matches(excludes, path);
+    }
+
+    private static boolean matches(final List<Pattern> patterns, final String path) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) return true;
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(final Collection<String> globs) {
+        final List<Pattern> patterns = new ArrayList<>();
+        if (globs == null) return patterns;
+
+        for (final String glob : globs) {
+            if (glob == null || glob.isEmpty()) continue;
+            patterns.add(compile(glob));
+        }
+        return patterns;
+    }
+
+    static Pattern compile(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+
+        // Without a slash the glob applies to the last name only
+        if (glob.indexOf('/') < 0) regex.append("(?:.*/)?");
+
+        final int length = glob.length();
+        for (int i = 0; i < length; i++) {
+            final char c = glob.charAt(i);
+
+            if (c == '*' && i + 1 < length && glob.charAt(i + 1) == '*') {
+                i++;
+                if (i + 1 < length && glob.charAt(i + 1) == '/') {
+                    // "**/" also matches no directory at all
+                    i++;
+                    regex.append("(?:.*/)?");
+                } else {
+                    regex.append(".*");
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+}
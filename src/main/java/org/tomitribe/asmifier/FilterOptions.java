@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.Options;
+
+import java.util.Arrays;
+
+/**
+ * The include and exclude globs of the commands walking archives,
+ * the selectors of the classes and members to asmify and how much
+ * of them to read
+ */
+@Options
+public class FilterOptions {
+
+    private final Filter entries;
+    private final Filter nested;
+    private final Selector selector;
+
+    public FilterOptions(@Option("include") final String[] include,
+                         @Option("exclude") final String[] exclude,
+                         @Option("include-nested") final String[] includeNested,
+                         @Option("exclude-nested") final String[] excludeNested,
+                         @Option("class") final String[] classes,
+                         @Option("field") final String[] fields,
+                         @Option("method") final String[] methods,
+                         @Option("structure-only") final boolean structureOnly,
+                         @Option("skip-frames") final boolean skipFrames,
+                         @Option("keep-debug") final boolean keepDebug) {
+        this.entries = filter(include, exclude);
+        this.nested = filter(includeNested, excludeNested);
+        this.selector = SelectorOptions.selector(classes, fields, methods,
+                Selector.flags(structureOnly, skipFrames, keepDebug));
+    }
+
+    /**
+     * @return the filter of the class and resource entries to convert
+     */
+    public Filter entries() {
+        return entries;
+    }
+
+    /**
+     * @return the filter of the nested archives to descend into
+     */
+    public Filter nested() {
+        return nested;
+    }
+
+    /**
+     * @return the classes and members to asmify
+     */
+    public Selector selector() {
+        return selector;
+    }
+
+    private static Filter filter(final String[] include, final String[] exclude) {
+        if (include == null && exclude == null) return Filter.ALL;
+        return new Filter(include == null ? null : Arrays.asList(include), exclude == null ? null : Arrays.asList(exclude));
+    }
+}
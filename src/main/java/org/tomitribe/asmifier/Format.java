@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * The forms in which a class is written, named as they are given on the
+ * command line
+ */
+public enum Format {
+
+    /**
+     * The Java code creating the class with ASM, see {@link AsmifierPrinter}
+     */
+    asmifier {
+        @Override
+        void write(final Consumer<ClassVisitor> source, final Writer writer) throws IOException {
+            try (final AsmifierPrinter printer = AsmifierPrinter.of(writer)) {
+                source.accept(new TraceClassVisitor(null, printer, null));
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    },
+
+    /**
+     * The disassembled class much as javap prints it, a fraction of the size
+     * of the asmified code.  The text of a class is kept until it was read.
+     */
+    textifier {
+        @Override
+        void write(final Consumer<ClassVisitor> source, final Writer writer) throws IOException {
+            final PrintWriter out = new PrintWriter(writer);
+            source.accept(new TraceClassVisitor(null, new Textifier(), out));
+            out.flush();
+            if (out.checkError()) throw new IOException("Failed to write the class");
+        }
+    },
+
+    /**
+     * One line of JSON per class with its members and instructions, see {@link JsonClassVisitor}
+     */
+    json {
+        @Override
+        void write(final Consumer<ClassVisitor> source, final Writer writer) throws IOException {
+            try {
+                source.accept(new JsonClassVisitor(writer));
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    };
+
+    /**
+     * Writes the class as the source sends its events to the visitor given
+     *
+     * @param source sends the events of the class, such as a ClassReader would
+     */
+    abstract void write(Consumer<ClassVisitor> source, Writer writer) throws IOException;
+}
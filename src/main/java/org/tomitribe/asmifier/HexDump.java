@@ -0,0 +1,441 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dumps the bytes of a class file 16 to a row, annotated with the parts
+ * of the class file starting in each row.
+ *
+ *     00000000  ca fe ba be 00 00 00 37  00 2f 0a 00 02 00 03 07  |.......7./......|  0 magic, 4 minor_version, ...
+ *
+ * Each annotation starts with the column of its first byte in hex.  The
+ * constant pool entries are located through {@link ClassReader#getItem(int)}
+ * and the fields, methods and attributes by walking the class file from
+ * {@link ClassReader#header}.  Where the walk runs out of bytes or the
+ * class cannot be read at all the row is marked "unreadable", which is
+ * usually close to what a broken transformer wrote.
+ *
+ * The rows are written as ASCII straight into a reused buffer.  Names are
+ * copied from the constant pool of the class, so apart from the
+ * ClassReader itself dumping a class allocates nothing.
+ */
+class HexDump {
+
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String[] TAGS = new String[21];
+
+    static {
+        TAGS[1] = "Utf8";
+        TAGS[3] = "Integer";
+        TAGS[4] = "Float";
+        TAGS[5] = "Long";
+        TAGS[6] = "Double";
+        TAGS[7] = "Class";
+        TAGS[8] = "String";
+        TAGS[9] = "Fieldref";
+        TAGS[10] = "Methodref";
+        TAGS[11] = "InterfaceMethodref";
+        TAGS[12] = "NameAndType";
+        TAGS[15] = "MethodHandle";
+        TAGS[16] = "MethodType";
+        TAGS[17] = "Dynamic";
+        TAGS[18] = "InvokeDynamic";
+        TAGS[19] = "Module";
+        TAGS[20] = "Package";
+    }
+
+    private enum Mark {
+        MAGIC("magic"),
+        MINOR("minor_version"),
+        MAJOR("major_version"),
+        CONSTANT_POOL("constant_pool_count"),
+        CONSTANT(null),
+        ACCESS("access_flags"),
+        THIS("this_class"),
+        SUPER("super_class"),
+        INTERFACES("interfaces_count"),
+        FIELDS("fields_count"),
+        FIELD("field "),
+        METHODS("methods_count"),
+        METHOD("method "),
+        ATTRIBUTES("attributes_count"),
+        ATTRIBUTE("attribute "),
+        CODE("code"),
+        EXCEPTIONS("exception_table_length"),
+        END("end"),
+        TRAILING("trailing bytes"),
+        UNREADABLE("unreadable");
+
+        private final byte[] text;
+
+        Mark(final String text) {
+            this.text = text == null ? new byte[0] : text.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final Mark[] MARKS = Mark.values();
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+
+    /**
+     * The parts of the class in the order of their offsets, as offset, mark and argument
+     */
+    private int[] marks = new int[3 * 256];
+    private int count;
+
+    private byte[] bytes;
+    private ClassReader reader;
+
+    HexDump(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Dumps the class file and flushes the stream
+     */
+    public void dump(final byte[] bytes) throws IOException {
+        this.bytes = bytes;
+        this.count = 0;
+        structure();
+
+        int mark = 0;
+        for (int row = 0; row < bytes.length || row == 0 && mark < count; row += 16) {
+            final int end = Math.min(row + 16, bytes.length);
+
+            hex(row, 8);
+            put(' ');
+            put(' ');
+            for (int i = row; i < row + 16; i++) {
+                if (i < end) {
+                    hex(bytes[i] & 0xFF, 2);
+                } else {
+                    put(' ');
+                    put(' ');
+                }
+                put(' ');
+                if (i == row + 7) put(' ');
+            }
+
+            put(' ');
+            put('|');
+            for (int i = row; i < end; i++) {
+                final int b = bytes[i] & 0xFF;
+                put(b >= 0x20 && b < 0x7F ? b : '.');
+            }
+            put('|');
+
+            // The marks past the last byte are shown on the last row
+            final boolean last = end == bytes.length;
+            boolean first = true;
+            while (mark < count && (marks[mark * 3] < end || last)) {
+                put(first ? ' ' : ',');
+                put(' ');
+                first = false;
+                final int column = marks[mark * 3] - row;
+                if (column < 16) {
+                    hex(column, 1);
+                } else {
+                    hex(marks[mark * 3], 8);
+                }
+                put(' ');
+                describe(marks[mark * 3], MARKS[marks[mark * 3 + 1]], marks[mark * 3 + 2]);
+                mark++;
+            }
+            put('\n');
+        }
+
+        flush();
+        this.bytes = null;
+        this.reader = null;
+    }
+
+    /**
+     * Walks the class file and records where each part starts
+     */
+    private void structure() {
+        if (bytes.length < 10) {
+            mark(0, Mark.UNREADABLE, 0);
+            return;
+        }
+
+        mark(0, Mark.MAGIC, 0);
+        mark(4, Mark.MINOR, 0);
+        mark(6, Mark.MAJOR, 0);
+        mark(8, Mark.CONSTANT_POOL, 0);
+
+        try {
+            reader = new ClassReader(bytes);
+        } catch (final RuntimeException e) {
+            // An unsupported version or a constant pool running past the end
+            constants();
+            return;
+        }
+
+        int offset = 10;
+        try {
+            for (int i = 1; i < reader.getItemCount(); i++) {
+                // Long and Double take two slots
+                if (reader.getItem(i) == 0) continue;
+                mark(reader.getItem(i) - 1, Mark.CONSTANT, i);
+            }
+
+            offset = reader.header;
+            mark(offset, Mark.ACCESS, 0);
+            mark(offset + 2, Mark.THIS, 0);
+            mark(offset + 4, Mark.SUPER, 0);
+            mark(offset + 6, Mark.INTERFACES, 0);
+            offset += 8 + 2 * u2(offset + 6);
+
+            offset = members(offset, Mark.FIELDS, Mark.FIELD);
+            offset = members(offset, Mark.METHODS, Mark.METHOD);
+            offset = attributes(offset);
+
+            if (offset < bytes.length) {
+                mark(offset, Mark.TRAILING, 0);
+            } else {
+                mark(offset, Mark.END, 0);
+            }
+        } catch (final RuntimeException e) {
+            unreadable(offset);
+        }
+    }
+
+    /**
+     * Marks where the class stops making sense, after the last part that still did
+     */
+    private void unreadable(final int offset) {
+        final int last = count == 0 ? 0 : marks[(count - 1) * 3];
+        mark(Math.max(last, Math.min(offset, bytes.length)), Mark.UNREADABLE, 0);
+    }
+
+    /**
+     * Walks the constant pool of a class ASM cannot read, to show how far it makes sense
+     */
+    private void constants() {
+        final int size = u2(8);
+        int offset = 10;
+        try {
+            for (int i = 1; i < size && offset < bytes.length; i++) {
+                mark(offset, Mark.CONSTANT, i);
+                final int tag = bytes[offset];
+                if (tag == 1) {
+                    offset += 3 + u2(offset + 1);
+                } else if (tag == 5 || tag == 6) {
+                    offset += 9;
+                    i++;
+                } else if (tag == 7 || tag == 8 || tag == 16 || tag == 19 || tag == 20) {
+                    offset += 3;
+                } else if (tag == 15) {
+                    offset += 4;
+                } else if (tag == 3 || tag == 4 || tag >= 9 && tag <= 12 || tag == 17 || tag == 18) {
+                    offset += 5;
+                } else {
+                    break;
+                }
+            }
+        } catch (final RuntimeException e) {
+            // ran past the end
+        }
+        unreadable(offset);
+    }
+
+    /**
+     * @param offset the offset of the fields_count or methods_count
+     * @return the offset following the fields or methods
+     */
+    private int members(int offset, final Mark members, final Mark member) {
+        final int size = u2(offset);
+        mark(offset, members, 0);
+        offset += 2;
+        for (int i = 0; i < size; i++) {
+            mark(offset, member, offset);
+            offset = attributes(offset + 6);
+        }
+        return offset;
+    }
+
+    /**
+     * @param offset the offset of the attributes_count
+     * @return the offset following the attributes
+     */
+    private int attributes(int offset) {
+        final int size = u2(offset);
+        mark(offset, Mark.ATTRIBUTES, 0);
+        offset += 2;
+
+        for (int i = 0; i < size; i++) {
+            final int name = u2(offset);
+            final int length = u4(offset + 2);
+            mark(offset, Mark.ATTRIBUTE, name);
+
+            final int start = offset + 6;
+            if (length < 0 || start + (long) length > bytes.length) throw new ArrayIndexOutOfBoundsException(start + length);
+
+            if (utf8(name, "Code")) {
+                final int code = start + 8;
+                mark(code, Mark.CODE, 0);
+                final int exceptions = code + u4(start + 4);
+                mark(exceptions, Mark.EXCEPTIONS, 0);
+                attributes(exceptions + 2 + 8 * u2(exceptions));
+            }
+            offset = start + length;
+        }
+        return offset;
+    }
+
+    private void mark(final int offset, final Mark mark, final int argument) {
+        // The walk is in file order, unless the lengths in a broken file say otherwise
+        if (count > 0 && marks[(count - 1) * 3] > offset) throw new ArrayIndexOutOfBoundsException(offset);
+
+        if ((count + 1) * 3 > marks.length) marks = Arrays.copyOf(marks, marks.length * 2);
+        marks[count * 3] = offset;
+        marks[count * 3 + 1] = mark.ordinal();
+        marks[count * 3 + 2] = argument;
+        count++;
+    }
+
+    private void describe(final int offset, final Mark mark, final int argument) throws IOException {
+        put(mark.text);
+
+        switch (mark) {
+            case CONSTANT: {
+                put('#');
+                decimal(argument);
+                put(' ');
+                final int tag = offset < bytes.length ? bytes[offset] : 0;
+                if (tag > 0 && tag < TAGS.length && TAGS[tag] != null) {
+                    put(TAGS[tag]);
+                } else {
+                    put("tag ");
+                    decimal(tag);
+                }
+                break;
+            }
+            case FIELD:
+            case METHOD:
+                name(u2(argument + 2));
+                if (mark == Mark.FIELD) put(':');
+                name(u2(argument + 4));
+                break;
+            case ATTRIBUTE:
+                name(argument);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes the constant pool string with anything but printable ASCII as '?'
+     */
+    private void name(final int index) throws IOException {
+        if (!utf8(index, null)) {
+            put('#');
+            decimal(index);
+            return;
+        }
+
+        final int offset = reader.getItem(index);
+        final int end = Math.min(offset + 2 + u2(offset), bytes.length);
+        for (int i = offset + 2; i < end; i++) {
+            final int b = bytes[i] & 0xFF;
+            if (b >= 0x20 && b < 0x7F) {
+                put(b);
+            } else if ((b & 0xC0) != 0x80) {
+                // the first byte of a multi byte character
+                put('?');
+            }
+        }
+    }
+
+    /**
+     * @param expected the value the string must have, or null for any
+     * @return true if the index is that of a Utf8 constant with the expected value
+     */
+    private boolean utf8(final int index, final String expected) {
+        if (index <= 0 || index >= reader.getItemCount() || reader.getItem(index) == 0) return false;
+
+        final int offset = reader.getItem(index);
+        if (bytes[offset - 1] != 1) return false;
+        if (expected == null) return true;
+
+        final int length = u2(offset);
+        if (length != expected.length() || offset + 2 + length > bytes.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + 2 + i] != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int u2(final int offset) {
+        return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+    }
+
+    private int u4(final int offset) {
+        return u2(offset) << 16 | u2(offset + 2);
+    }
+
+    private void hex(final int value, final int digits) throws IOException {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            put(DIGITS[(value >>> shift) & 0xF]);
+        }
+    }
+
+    private void decimal(final int value) throws IOException {
+        if (value < 0) {
+            put('-');
+            decimal(-value);
+            return;
+        }
+        if (value >= 10) decimal(value / 10);
+        put('0' + value % 10);
+    }
+
+    private void put(final String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put(text.charAt(i));
+        }
+    }
+
+    private void put(final byte[] text) throws IOException {
+        for (final byte b : text) {
+            put(b);
+        }
+    }
+
+    private void put(final int b) throws IOException {
+        if (position == buffer.length) drain();
+        buffer[position++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+}
@@ -0,0 +1,778 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.util.Printer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * A compact index of what the classes of an archive refer to, built while
+ * they are asmified and stored in the output as {@value #NAME}.  The
+ * index sees each class through a {@link Tee} in front of the printer,
+ * so it costs no parse of its own.
+ *
+ * For every class, and every method and field of it, the index records the
+ * types, methods and fields it refers to, the string constants it loads and
+ * the opcodes it uses.  Questions such as "who calls javax/xml/bind" or
+ * "which classes use INVOKEDYNAMIC" are then answered from the index alone
+ * instead of by scanning the asmified text.
+ *
+ * Types are internal names such as {@code javax/xml/bind/JAXBContext},
+ * methods the owner, a dot, the name and the descriptor such as
+ * {@code javax/xml/bind/JAXB.marshal(Ljava/lang/Object;Ljava/io/File;)V}
+ * and fields the same with a colon before the descriptor.  Members of the
+ * indexed classes are named the same way without the owner.
+ *
+ * The file holds a table of every string, the classes and members, and
+ * then for every term the members using it, all as variable length
+ * integers.  A search reads the terms one after the other and only
+ * decodes the members of those that match.
+ */
+public class Index {
+
+    public static final String NAME = ".asmify-index";
+
+    private static final String FORMAT = "asmify-index 1";
+
+    public enum Kind {
+        TYPE, METHOD, FIELD, STRING, OPCODE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final String header;
+
+    /**
+     * The terms of every member of every class, the class itself being the
+     * member with an empty name.  Each term starts with the ordinal of its kind.
+     */
+    private final Map<String, Map<String, Set<String>>> classes = new TreeMap<>();
+
+    /**
+     * The same term is found in thousands of classes, keep it once
+     */
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    /**
+     * @param settings the settings shaping the output, an index written with different ones is not loaded
+     */
+    public Index(final String settings) {
+        this.header = Manifest.version() + " " + settings;
+    }
+
+    /**
+     * Indexes the class, replacing anything indexed before under the same path.  Thread safe.
+     *
+     * @param path the path of the class file in the archive
+     * @param selector the fields and methods to index
+     */
+    public void add(final String path, final byte[] bytes, final Selector selector) {
+        final Collector collector = new Collector();
+        final int flags = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES | (selector.getFlags() & ClassReader.SKIP_CODE);
+        new ClassReader(bytes).accept(selector.filter(collector), flags);
+
+        put(path, collector);
+    }
+
+    /**
+     * Indexes the class from a parse done anyway, such as the one asmifying it, rather than
+     * reading it a second time.  The tee goes to {@link Selector#tee} of the selector of that
+     * parse.  A class whose output was taken from a cache is never parsed and must still be
+     * added with {@link #add(String, byte[], Selector)}.
+     *
+     * @param path the path of the class file in the archive
+     */
+    public Tee tee(final String path) {
+        return new Tee(path);
+    }
+
+    private void put(final String path, final Collector collector) {
+        synchronized (classes) {
+            classes.put(path, collector.members);
+        }
+    }
+
+    public void remove(final String path) {
+        synchronized (classes) {
+            classes.remove(path);
+        }
+    }
+
+    /**
+     * Adds everything from the index previously written to the directory,
+     * if it was written by the same version with the same settings
+     *
+     * @return true if an index was loaded
+     */
+    public boolean load(final File dir) throws IOException {
+        final File file = new File(dir, NAME);
+        if (!file.isFile()) return false;
+
+        final Map<Integer, Map<String, Set<String>>> members = new HashMap<>();
+        final String[][] tables = new String[1][];
+
+        try (final InputStream in = Files.newInputStream(file.toPath())) {
+            final boolean read = read(in, header, new Reader() {
+                @Override
+                public boolean wants(final Kind kind, final String term) {
+                    return true;
+                }
+
+                @Override
+                public void found(final Kind kind, final String term, final int location, final String[] table,
+                                  final int[] paths, final int[] names) {
+                    tables[0] = table;
+                    final Map<String, Set<String>> clazz = members.computeIfAbsent(paths[location], k -> new TreeMap<>());
+                    clazz.computeIfAbsent(intern(table[names[location]]), k -> new TreeSet<>())
+                            .add(intern(kind.ordinal() + term));
+                }
+            });
+            if (!read) return false;
+        } catch (final EOFException e) {
+            // A damaged index, the classes will be indexed again
+            return false;
+        }
+
+        synchronized (classes) {
+            for (final Map.Entry<Integer, Map<String, Set<String>>> clazz : members.entrySet()) {
+                classes.put(tables[0][clazz.getKey()], clazz.getValue());
+            }
+        }
+        return true;
+    }
+
+    public void write(final OutputStream out) throws IOException {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> table = new ArrayList<>();
+        final List<int[]> locations = new ArrayList<>();
+        final TreeMap<String, Postings> postings = new TreeMap<>();
+
+        synchronized (classes) {
+            for (final Map.Entry<String, Map<String, Set<String>>> clazz : classes.entrySet()) {
+                for (final Map.Entry<String, Set<String>> member : clazz.getValue().entrySet()) {
+                    if (member.getValue().isEmpty()) continue;
+
+                    final int location = locations.size();
+                    locations.add(new int[]{id(clazz.getKey(), ids, table), id(member.getKey(), ids, table)});
+                    for (final String term : member.getValue()) {
+                        postings.computeIfAbsent(term, k -> new Postings()).add(location);
+                    }
+                }
+            }
+        }
+
+        final int[] terms = new int[postings.size()];
+        int t = 0;
+        for (final String term : postings.keySet()) {
+            terms[t++] = id(term.substring(1), ids, table);
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeUTF(FORMAT);
+        data.writeUTF(header);
+
+        writeInt(data, table.size());
+        for (final String string : table) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(data, bytes.length);
+            data.write(bytes);
+        }
+
+        writeInt(data, locations.size());
+        for (final int[] location : locations) {
+            writeInt(data, location[0]);
+            writeInt(data, location[1]);
+        }
+
+        writeInt(data, postings.size());
+        t = 0;
+        for (final Map.Entry<String, Postings> entry : postings.entrySet()) {
+            data.writeByte(entry.getKey().charAt(0) - '0');
+            writeInt(data, terms[t++]);
+
+            final Postings locationIds = entry.getValue();
+            writeInt(data, locationIds.size);
+            int previous = 0;
+            for (int i = 0; i < locationIds.size; i++) {
+                writeInt(data, locationIds.ids[i] - previous);
+                previous = locationIds.ids[i];
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes a line for every member using a matching term, in the order of
+     * the classes and members, as the path of the class, a # and the member,
+     * and the term
+     *
+     * @return the number of lines written
+     */
+    public static int search(final InputStream in, final Query query, final Writer out) throws IOException {
+        final List<Hit> hits = new ArrayList<>();
+        final String[][] tables = new String[1][];
+        final int[][] members = new int[2][];
+
+        final boolean read = read(in, null, new Reader() {
+            @Override
+            public boolean wants(final Kind kind, final String term) {
+                return query.matches(kind, term);
+            }
+
+            @Override
+            public void found(final Kind kind, final String term, final int location, final String[] table,
+                              final int[] classes, final int[] names) {
+                tables[0] = table;
+                members[0] = classes;
+                members[1] = names;
+                hits.add(new Hit(location, kind, term));
+            }
+        });
+        if (!read) throw new IOException("Not an index written by this version of asmify");
+
+        hits.sort((a, b) -> a.location != b.location ? Integer.compare(a.location, b.location) : a.term.compareTo(b.term));
+
+        final StringBuilder line = new StringBuilder();
+        for (final Hit hit : hits) {
+            line.setLength(0);
+            line.append(tables[0][members[0][hit.location]]);
+            final String member = tables[0][members[1][hit.location]];
+            if (!member.isEmpty()) line.append('#').append(member);
+            line.append(' ');
+            if (hit.kind == Kind.STRING) {
+                Printer.appendString(line, hit.term);
+            } else {
+                line.append(hit.term);
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+        out.flush();
+        return hits.size();
+    }
+
+    /**
+     * @param header the header the index must have, or null for any index of this format
+     * @return false if the index has a different format or header
+     */
+    private static boolean read(final InputStream in, final String header, final Reader reader) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (!FORMAT.equals(data.readUTF())) return false;
+        final String written = data.readUTF();
+        if (header != null && !header.equals(written)) return false;
+
+        final String[] table = new String[readInt(data)];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            final int length = readInt(data);
+            if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+            data.readFully(bytes, 0, length);
+            table[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        final int count = readInt(data);
+        final int[] classes = new int[count];
+        final int[] names = new int[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = readInt(data);
+            names[i] = readInt(data);
+        }
+
+        final int terms = readInt(data);
+        for (int t = 0; t < terms; t++) {
+            final Kind kind = KINDS[data.readByte()];
+            final String term = table[readInt(data)];
+            final boolean wanted = reader.wants(kind, term);
+
+            final int size = readInt(data);
+            int location = 0;
+            for (int i = 0; i < size; i++) {
+                location += readInt(data);
+                if (wanted) reader.found(kind, term, location, table, classes, names);
+            }
+        }
+        return true;
+    }
+
+    private static int id(final String string, final Map<String, Integer> ids, final List<String> table) {
+        final Integer id = ids.get(string);
+        if (id != null) return id;
+        ids.put(string, table.size());
+        table.add(string);
+        return table.size() - 1;
+    }
+
+    private String intern(final String string) {
+        final String existing = strings.putIfAbsent(string, string);
+        return existing != null ? existing : string;
+    }
+
+    private static void writeInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Damaged index");
+    }
+
+    private interface Reader {
+        boolean wants(Kind kind, String term);
+
+        /**
+         * @param location the index of the member in classes and names
+         * @param classes the string of the class path of every member
+         * @param names the string of the name of every member
+         */
+        void found(Kind kind, String term, int location, String[] table, int[] classes, int[] names);
+    }
+
+    private static class Hit {
+        private final int location;
+        private final Kind kind;
+        private final String term;
+
+        Hit(final int location, final Kind kind, final String term) {
+            this.location = location;
+            this.kind = kind;
+            this.term = term;
+        }
+    }
+
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(final int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * The globs to search for, by kind of term.
+     *
+     * Types, methods and fields are matched like the paths of a {@link Filter},
+     * {@code javax/xml/bind/**} matching everything in or below the package and
+     * a glob without a slash, such as {@code JAXB*}, only the simple name.
+     * Methods and fields match with or without their descriptor.  In strings
+     * and opcodes {@code *} matches anything, and opcodes ignore case.
+     */
+    public static class Query {
+
+        private final Map<Kind, List<Pattern>> patterns = new EnumMap<>(Kind.class);
+
+        public Query add(final Kind kind, final Collection<String> globs) {
+            if (globs == null) return this;
+            for (final String glob : globs) {
+                if (glob == null || glob.isEmpty()) continue;
+                patterns.computeIfAbsent(kind, k -> new ArrayList<>()).add(compile(kind, glob));
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return patterns.isEmpty();
+        }
+
+        boolean matches(final Kind kind, final String term) {
+            final List<Pattern> list = patterns.get(kind);
+            if (list == null) return false;
+
+            final String name = kind == Kind.METHOD || kind == Kind.FIELD ? owned(kind, term) : term;
+            for (final Pattern pattern : list) {
+                if (pattern.matcher(term).matches() || pattern.matcher(name).matches()) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the owner and name of a method or field without the descriptor
+         */
+        private static String owned(final Kind kind, final String term) {
+            final int end = term.indexOf(kind == Kind.METHOD ? '(' : ':');
+            return end < 0 ? term : term.substring(0, end);
+        }
+
+        private static Pattern compile(final Kind kind, final String glob) {
+            if (kind == Kind.TYPE || kind == Kind.METHOD || kind == Kind.FIELD) return Filter.compile(glob);
+
+            final String text = kind == Kind.OPCODE ? glob.toUpperCase(Locale.ROOT) : glob;
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    /**
+     * Puts a collector in front of the visitor of a parse and indexes the
+     * class once it was read
+     */
+    public class Tee implements UnaryOperator<ClassVisitor> {
+
+        private final String path;
+        private volatile boolean indexed;
+
+        private Tee(final String path) {
+            this.path = path;
+        }
+
+        @Override
+        public ClassVisitor apply(final ClassVisitor next) {
+            return new Collector(next) {
+                @Override
+                public void visitEnd() {
+                    put(path, this);
+                    indexed = true;
+                    super.visitEnd();
+                }
+            };
+        }
+
+        /**
+         * @return whether the class was parsed and so indexed
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+    }
+
+    /**
+     * Collects the terms of a class and of each of its members, passing
+     * every event on to the next visitor if there is one
+     */
+    private class Collector extends ClassVisitor {
+
+        private final Map<String, Set<String>> members = new TreeMap<>();
+        private final Set<String> clazz = member("");
+
+        Collector() {
+            this(null);
+        }
+
+        Collector(final ClassVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        private Set<String> member(final String name) {
+            return members.computeIfAbsent(intern(name), k -> new TreeSet<>());
+        }
+
+        @Override
+        public void visit(final int version, final int access, final String name, final String signature,
+                          final String superName, final String[] interfaces) {
+            if (superName != null) type(clazz, superName);
+            if (interfaces != null) {
+                for (final String type : interfaces) {
+                    type(clazz, type);
+                }
+            }
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+            types(clazz, descriptor);
+            return super.visitAnnotation(descriptor, visible);
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String descriptor,
+                                                     final boolean visible) {
+            types(clazz, descriptor);
+            return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        }
+
+        @Override
+        public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                       final String signature, final Object value) {
+            final Set<String> terms = member(name + ":" + descriptor);
+            types(terms, descriptor);
+            if (value instanceof String) add(terms, Kind.STRING, (String) value);
+
+            return new FieldVisitor(Opcodes.ASM9, super.visitField(access, name, descriptor, signature, value)) {
+                @Override
+                public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                    types(terms, descriptor);
+                    return super.visitAnnotation(descriptor, visible);
+                }
+
+                @Override
+                public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath,
+                                                             final String descriptor, final boolean visible) {
+                    types(terms, descriptor);
+                    return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                         final String signature, final String[] exceptions) {
+            final Set<String> terms = member(name + descriptor);
+            types(terms, descriptor);
+            if (exceptions != null) {
+                for (final String type : exceptions) {
+                    type(terms, type);
+                }
+            }
+            return new Code(terms, super.visitMethod(access, name, descriptor, signature, exceptions));
+        }
+
+        /**
+         * Collects the terms of a method, its annotations and its code
+         */
+        private class Code extends MethodVisitor {
+
+            private final Set<String> terms;
+
+            Code(final Set<String> terms, final MethodVisitor next) {
+                super(Opcodes.ASM9, next);
+                this.terms = terms;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                types(terms, descriptor);
+                return super.visitAnnotation(descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath,
+                                                         final String descriptor, final boolean visible) {
+                types(terms, descriptor);
+                return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(final int parameter, final String descriptor,
+                                                              final boolean visible) {
+                types(terms, descriptor);
+                return super.visitParameterAnnotation(parameter, descriptor, visible);
+            }
+
+            @Override
+            public void visitInsn(final int opcode) {
+                opcode(opcode);
+                super.visitInsn(opcode);
+            }
+
+            @Override
+            public void visitIntInsn(final int opcode, final int operand) {
+                opcode(opcode);
+                super.visitIntInsn(opcode, operand);
+            }
+
+            @Override
+            public void visitVarInsn(final int opcode, final int varIndex) {
+                opcode(opcode);
+                super.visitVarInsn(opcode, varIndex);
+            }
+
+            @Override
+            public void visitTypeInsn(final int opcode, final String type) {
+                opcode(opcode);
+                type(terms, type);
+                super.visitTypeInsn(opcode, type);
+            }
+
+            @Override
+            public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
+                opcode(opcode);
+                type(terms, owner);
+                add(terms, Kind.FIELD, owner + "." + name + ":" + descriptor);
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+            }
+
+            @Override
+            public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor,
+                                        final boolean isInterface) {
+                opcode(opcode);
+                type(terms, owner);
+                add(terms, Kind.METHOD, owner + "." + name + descriptor);
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(final String name, final String descriptor, final Handle bootstrapMethodHandle,
+                                               final Object... bootstrapMethodArguments) {
+                opcode(Opcodes.INVOKEDYNAMIC);
+                constant(bootstrapMethodHandle);
+                for (final Object argument : bootstrapMethodArguments) {
+                    constant(argument);
+                }
+                super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+            }
+
+            @Override
+            public void visitJumpInsn(final int opcode, final Label label) {
+                opcode(opcode);
+                super.visitJumpInsn(opcode, label);
+            }
+
+            @Override
+            public void visitLdcInsn(final Object value) {
+                opcode(Opcodes.LDC);
+                constant(value);
+                super.visitLdcInsn(value);
+            }
+
+            @Override
+            public void visitIincInsn(final int varIndex, final int increment) {
+                opcode(Opcodes.IINC);
+                super.visitIincInsn(varIndex, increment);
+            }
+
+            @Override
+            public void visitTableSwitchInsn(final int min, final int max, final Label dflt, final Label... labels) {
+                opcode(Opcodes.TABLESWITCH);
+                super.visitTableSwitchInsn(min, max, dflt, labels);
+            }
+
+            @Override
+            public void visitLookupSwitchInsn(final Label dflt, final int[] keys, final Label[] labels) {
+                opcode(Opcodes.LOOKUPSWITCH);
+                super.visitLookupSwitchInsn(dflt, keys, labels);
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(final String descriptor, final int numDimensions) {
+                opcode(Opcodes.MULTIANEWARRAY);
+                types(terms, descriptor);
+                super.visitMultiANewArrayInsn(descriptor, numDimensions);
+            }
+
+            @Override
+            public void visitTryCatchBlock(final Label start, final Label end, final Label handler, final String type) {
+                if (type != null) type(terms, type);
+                super.visitTryCatchBlock(start, end, handler, type);
+            }
+
+            private void opcode(final int opcode) {
+                add(terms, Kind.OPCODE, Printer.OPCODES[opcode]);
+            }
+
+            private void constant(final Object value) {
+                if (value instanceof String) {
+                    add(terms, Kind.STRING, (String) value);
+                } else if (value instanceof Type) {
+                    final Type type = (Type) value;
+                    types(terms, type.getDescriptor());
+                } else if (value instanceof Handle) {
+                    final Handle handle = (Handle) value;
+                    type(terms, handle.getOwner());
+                    if (handle.getTag() <= Opcodes.H_PUTSTATIC) {
+                        add(terms, Kind.FIELD, handle.getOwner() + "." + handle.getName() + ":" + handle.getDesc());
+                    } else {
+                        add(terms, Kind.METHOD, handle.getOwner() + "." + handle.getName() + handle.getDesc());
+                    }
+                } else if (value instanceof ConstantDynamic) {
+                    final ConstantDynamic dynamic = (ConstantDynamic) value;
+                    constant(dynamic.getBootstrapMethod());
+                    for (int i = 0; i < dynamic.getBootstrapMethodArgumentCount(); i++) {
+                        constant(dynamic.getBootstrapMethodArgument(i));
+                    }
+                }
+            }
+        }
+
+        private void add(final Set<String> terms, final Kind kind, final String term) {
+            terms.add(intern(kind.ordinal() + term));
+        }
+
+        private void type(final Set<String> terms, final String internalName) {
+            // Array classes are named by their descriptor
+            if (internalName.startsWith("[")) {
+                types(terms, internalName);
+            } else {
+                add(terms, Kind.TYPE, internalName);
+            }
+        }
+
+        /**
+         * Adds the classes named in a field or method descriptor
+         */
+        private void types(final Set<String> terms, final String descriptor) {
+            final Type type = Type.getType(descriptor);
+            if (type.getSort() == Type.METHOD) {
+                for (final Type argument : type.getArgumentTypes()) {
+                    type(terms, argument);
+                }
+                type(terms, type.getReturnType());
+            } else {
+                type(terms, type);
+            }
+        }
+
+        private void type(final Set<String> terms, final Type type) {
+            final Type element = type.getSort() == Type.ARRAY ? type.getElementType() : type;
+            if (element.getSort() == Type.OBJECT) add(terms, Kind.TYPE, element.getInternalName());
+        }
+    }
+}
@@ -26,7 +26,7 @@ public interface Is {
         }
 
         public static boolean accept(String path) {
-            if (path.endsWith(".zip")) {
+            if (path.endsWith(".zip") || path.endsWith(".jmod")) {
                 return true;
             } else if (!path.endsWith("ar")) {
                 return false;
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records every entry whose output is complete while an archive is
+ * converted into a directory, so a run that was interrupted can be resumed
+ * without converting those entries again.
+ *
+ * The lines are those of the {@link Manifest}, appended and flushed as the
+ * workers finish each entry and only once its output has been moved into
+ * place.  A line torn by a crash is ignored when the journal is read back.
+ * The journal is removed once the run completes.
+ */
+public class Journal implements Closeable {
+
+    public static final String NAME = ".asmify-journal";
+
+    private final Path path;
+    private final Manifest completed;
+    private final BufferedWriter writer;
+
+    /**
+     * @param dir the destination directory
+     * @param settings the settings affecting the output, a journal written with others is ignored
+     * @param resume keep the entries recorded by the interrupted run rather than starting over
+     */
+    public Journal(final File dir, final String settings, final boolean resume) throws IOException {
+        this.path = new File(dir, NAME).toPath();
+        this.completed = new Manifest(settings);
+
+        final String header = Manifest.header(settings);
+        final List<String> lines = new ArrayList<>();
+        if (resume && Files.isRegularFile(path)) read(header, lines);
+
+        Files.createDirectories(dir.toPath());
+
+        // Rewritten without any torn line so the new lines are not appended to one
+        final Path tmp = new File(dir, NAME + ".tmp").toPath();
+        try (final BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(header);
+            out.write('\n');
+            for (final String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private void read(final String header, final List<String> lines) throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!header.equals(reader.readLine())) return;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 3);
+                if (parts.length != 3) continue;
+
+                try {
+                    completed.add(parts[2], Long.parseLong(parts[0], 16), Long.parseLong(parts[1]));
+                    lines.add(line);
+                } catch (final NumberFormatException e) {
+                    // ignore the torn line, the entry will be converted again
+                }
+            }
+        } catch (final IOException e) {
+            // A journal cut short in the middle of a character, keep what was read
+        }
+    }
+
+    /**
+     * @return true if the interrupted run completed the entry with this CRC-32 and size
+     */
+    public boolean completed(final String key, final long crc, final long size) {
+        return completed.matches(key, crc, size);
+    }
+
+    /**
+     * Records the entry as complete, to be called once its output is in place
+     */
+    public synchronized void add(final String key, final long crc, final long size) throws IOException {
+        if (crc == -1 || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) return;
+        writer.write(Long.toHexString(crc));
+        writer.write('\t');
+        writer.write(Long.toString(size));
+        writer.write('\t');
+        writer.write(key);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    /**
+     * Closes and removes the journal once the run completed
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,716 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.ModuleVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.util.Printer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes a class as a single line of JSON as its events arrive, without
+ * building a tree of the class first.
+ *
+ *     {"name":"org/example/Orange","access":33,"version":55,"super":"java/lang/Object","interfaces":[],
+ *      "fields":[{"name":"color","descriptor":"I","access":18}],
+ *      "methods":[{"name":"<init>","descriptor":"()V","access":1,
+ *                  "code":[["ALOAD",0],["INVOKESPECIAL","java/lang/Object","<init>","()V",false],["RETURN"]],
+ *                  "maxStack":1,"maxLocals":1}]}
+ *
+ * An array is only opened once its first element arrives, so a class
+ * without annotations has no "annotations" key and an interface method
+ * no "code".  Each instruction is an array of its opcode and operands.
+ * Labels are named L0, L1 and so on in the order they are first met and
+ * placed in the code as ["label","L0"], along with the ["line",12,"L0"]
+ * and ["frame",...] entries of the debug information and stack map
+ * frames that were read.  A constant loaded by LDC is preceded by its
+ * type, as in ["LDC","long",42].
+ *
+ * Type annotations, non-standard attributes, the details of a module and
+ * the inner class, nest and record metadata of a class are left out.
+ *
+ * Failures to write are thrown as {@link UncheckedIOException}.
+ */
+class JsonClassVisitor extends ClassVisitor {
+
+    /**
+     * The frame types of {@link Opcodes#TOP} to {@link Opcodes#UNINITIALIZED_THIS}
+     */
+    private static final String[] VERIFICATION_TYPES = {"T", "I", "F", "D", "J", "N", "U"};
+
+    private final Writer out;
+    private final Sections sections = new Sections();
+
+    JsonClassVisitor(final Writer out) {
+        super(Opcodes.ASM9);
+        this.out = out;
+    }
+
+    @Override
+    public void visit(final int version, final int access, final String name, final String signature,
+                      final String superName, final String[] interfaces) {
+        write("{\"name\":");
+        string(name);
+        write(",\"access\":");
+        write(access);
+        write(",\"version\":");
+        write(version & 0xFFFF);
+        if (version >>> 16 != 0) {
+            write(",\"minor\":");
+            write(version >>> 16);
+        }
+        if (signature != null) {
+            write(",\"signature\":");
+            string(signature);
+        }
+        write(",\"super\":");
+        string(superName);
+        write(",\"interfaces\":");
+        strings(interfaces);
+    }
+
+    @Override
+    public void visitSource(final String source, final String debug) {
+        if (source == null) return;
+        sections.key("source");
+        string(source);
+    }
+
+    @Override
+    public ModuleVisitor visitModule(final String name, final int access, final String version) {
+        sections.key("module");
+        string(name);
+        return null;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+        sections.element("annotations");
+        return annotation(descriptor, visible, -1);
+    }
+
+    @Override
+    public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                   final String signature, final Object value) {
+        sections.element("fields");
+        member(name, descriptor, access, signature);
+        if (value != null) {
+            write(",\"value\":");
+            constant(value);
+        }
+
+        final Sections field = new Sections();
+        return new FieldVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+                field.element("annotations");
+                return annotation(descriptor, visible, -1);
+            }
+
+            @Override
+            public void visitEnd() {
+                field.close();
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                     final String signature, final String[] exceptions) {
+        sections.element("methods");
+        member(name, descriptor, access, signature);
+        if (exceptions != null) {
+            write(",\"exceptions\":");
+            strings(exceptions);
+        }
+        return new Method();
+    }
+
+    @Override
+    public void visitEnd() {
+        sections.close();
+        write("\n");
+    }
+
+    private void member(final String name, final String descriptor, final int access, final String signature) {
+        write("{\"name\":");
+        string(name);
+        write(",\"descriptor\":");
+        string(descriptor);
+        write(",\"access\":");
+        write(access);
+        if (signature != null) {
+            write(",\"signature\":");
+            string(signature);
+        }
+    }
+
+    /**
+     * @param parameter the index of the annotated parameter, -1 if the annotation is not on a parameter
+     */
+    private AnnotationVisitor annotation(final String descriptor, final boolean visible, final int parameter) {
+        write("{\"descriptor\":");
+        string(descriptor);
+        write(",\"visible\":");
+        write(String.valueOf(visible));
+        if (parameter >= 0) {
+            write(",\"parameter\":");
+            write(parameter);
+        }
+        return new Annotation(false);
+    }
+
+    /**
+     * Writes the constant as the JSON value closest to it
+     */
+    private void constant(final Object value) {
+        if (value instanceof String) {
+            string((String) value);
+        } else if (value instanceof Character) {
+            string(value.toString());
+        } else if (value instanceof Float || value instanceof Double) {
+            final double number = ((Number) value).doubleValue();
+            // NaN and the infinities have no JSON number
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                string(value.toString());
+            } else {
+                write(value.toString());
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            write(value.toString());
+        } else if (value instanceof Type) {
+            write("{\"type\":");
+            string(((Type) value).getDescriptor());
+            write("}");
+        } else if (value instanceof Handle) {
+            handle((Handle) value);
+        } else if (value instanceof ConstantDynamic) {
+            final ConstantDynamic condy = (ConstantDynamic) value;
+            write("{\"name\":");
+            string(condy.getName());
+            write(",\"descriptor\":");
+            string(condy.getDescriptor());
+            write(",\"bootstrap\":");
+            handle(condy.getBootstrapMethod());
+            write(",\"arguments\":[");
+            for (int i = 0; i < condy.getBootstrapMethodArgumentCount(); i++) {
+                if (i > 0) write(",");
+                constant(condy.getBootstrapMethodArgument(i));
+            }
+            write("]}");
+        } else if (value != null && value.getClass().isArray()) {
+            // The primitive arrays of annotation values
+            write("[");
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (i > 0) write(",");
+                constant(Array.get(value, i));
+            }
+            write("]");
+        } else {
+            write("null");
+        }
+    }
+
+    private void handle(final Handle handle) {
+        write("{\"tag\":");
+        string(Printer.HANDLE_TAG[handle.getTag()]);
+        write(",\"owner\":");
+        string(handle.getOwner());
+        write(",\"name\":");
+        string(handle.getName());
+        write(",\"descriptor\":");
+        string(handle.getDesc());
+        write(",\"interface\":");
+        write(String.valueOf(handle.isInterface()));
+        write("}");
+    }
+
+    private void strings(final String[] values) {
+        write("[");
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) write(",");
+                string(values[i]);
+            }
+        }
+        write("]");
+    }
+
+    private void string(final String value) {
+        if (value == null) {
+            write("null");
+            return;
+        }
+
+        try {
+            NdjsonOutput.string(out, value);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(final int value) {
+        write(Integer.toString(value));
+    }
+
+    private void write(final String text) {
+        try {
+            out.write(text);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The arrays of an object, each opened as its first element arrives
+     * and closed once another key follows or the object ends
+     */
+    private class Sections {
+        private String open;
+
+        /**
+         * Starts the next element of the array, opening it if needed
+         */
+        void element(final String name) {
+            if (name.equals(open)) {
+                write(",");
+                return;
+            }
+
+            if (open != null) write("]");
+            write(",\"" + name + "\":[");
+            open = name;
+        }
+
+        /**
+         * Starts a key that holds a value rather than an array
+         */
+        void key(final String name) {
+            if (open != null) write("]");
+            open = null;
+            write(",\"" + name + "\":");
+        }
+
+        /**
+         * Ends the object
+         */
+        void close() {
+            if (open != null) write("]");
+            open = null;
+            write("}");
+        }
+    }
+
+    /**
+     * The values of an annotation, or of an array within one, ending the
+     * annotation or array once they are all written
+     */
+    private class Annotation extends AnnotationVisitor {
+        private final boolean array;
+        private boolean empty = true;
+
+        Annotation(final boolean array) {
+            super(Opcodes.ASM9);
+            this.array = array;
+        }
+
+        private void name(final String name) {
+            if (array) {
+                if (!empty) write(",");
+            } else {
+                write(empty ? ",\"values\":{" : ",");
+                string(name);
+                write(":");
+            }
+            empty = false;
+        }
+
+        @Override
+        public void visit(final String name, final Object value) {
+            name(name);
+            constant(value);
+        }
+
+        @Override
+        public void visitEnum(final String name, final String descriptor, final String value) {
+            name(name);
+            write("{\"enum\":");
+            string(descriptor);
+            write(",\"value\":");
+            string(value);
+            write("}");
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(final String name, final String descriptor) {
+            name(name);
+            write("{\"descriptor\":");
+            string(descriptor);
+            return new Annotation(false);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(final String name) {
+            name(name);
+            write("[");
+            return new Annotation(true);
+        }
+
+        @Override
+        public void visitEnd() {
+            if (array) {
+                write("]");
+            } else {
+                if (!empty) write("}");
+                write("}");
+            }
+        }
+    }
+
+    /**
+     * Writes the annotations and code of a method
+     */
+    private class Method extends MethodVisitor {
+        private final Sections sections = new Sections();
+        private final Map<Label, String> labels = new IdentityHashMap<>();
+
+        Method() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(final String descriptor, final boolean visible) {
+            sections.element("annotations");
+            return annotation(descriptor, visible, -1);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(final int parameter, final String descriptor, final boolean visible) {
+            sections.element("annotations");
+            return annotation(descriptor, visible, parameter);
+        }
+
+        @Override
+        public void visitFrame(final int type, final int numLocal, final Object[] local, final int numStack, final Object[] stack) {
+            code("frame");
+            switch (type) {
+                case Opcodes.F_NEW:
+                case Opcodes.F_FULL:
+                    write(type == Opcodes.F_NEW ? ",\"new\"," : ",\"full\",");
+                    types(numLocal, local);
+                    write(",");
+                    types(numStack, stack);
+                    break;
+                case Opcodes.F_APPEND:
+                    write(",\"append\",");
+                    types(numLocal, local);
+                    break;
+                case Opcodes.F_CHOP:
+                    write(",\"chop\",");
+                    write(numLocal);
+                    break;
+                case Opcodes.F_SAME:
+                    write(",\"same\"");
+                    break;
+                default:
+                    write(",\"same1\",");
+                    types(1, stack);
+                    break;
+            }
+            write("]");
+        }
+
+        @Override
+        public void visitInsn(final int opcode) {
+            code(Printer.OPCODES[opcode]);
+            write("]");
+        }
+
+        @Override
+        public void visitIntInsn(final int opcode, final int operand) {
+            code(Printer.OPCODES[opcode]);
+            write(",");
+            if (opcode == Opcodes.NEWARRAY) {
+                string(Printer.TYPES[operand]);
+            } else {
+                write(operand);
+            }
+            write("]");
+        }
+
+        @Override
+        public void visitVarInsn(final int opcode, final int var) {
+            code(Printer.OPCODES[opcode]);
+            write(",");
+            write(var);
+            write("]");
+        }
+
+        @Override
+        public void visitTypeInsn(final int opcode, final String type) {
+            code(Printer.OPCODES[opcode]);
+            write(",");
+            string(type);
+            write("]");
+        }
+
+        @Override
+        public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
+            code(Printer.OPCODES[opcode]);
+            reference(owner, name, descriptor);
+            write("]");
+        }
+
+        @Override
+        public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor,
+                                    final boolean isInterface) {
+            code(Printer.OPCODES[opcode]);
+            reference(owner, name, descriptor);
+            write(",");
+            write(String.valueOf(isInterface));
+            write("]");
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(final String name, final String descriptor, final Handle bootstrapMethodHandle,
+                                           final Object... bootstrapMethodArguments) {
+            code("INVOKEDYNAMIC");
+            write(",");
+            string(name);
+            write(",");
+            string(descriptor);
+            write(",");
+            handle(bootstrapMethodHandle);
+            write(",[");
+            for (int i = 0; i < bootstrapMethodArguments.length; i++) {
+                if (i > 0) write(",");
+                constant(bootstrapMethodArguments[i]);
+            }
+            write("]]");
+        }
+
+        @Override
+        public void visitJumpInsn(final int opcode, final Label label) {
+            code(Printer.OPCODES[opcode]);
+            write(",");
+            label(label);
+            write("]");
+        }
+
+        @Override
+        public void visitLabel(final Label label) {
+            code("label");
+            write(",");
+            label(label);
+            write("]");
+        }
+
+        @Override
+        public void visitLdcInsn(final Object value) {
+            code("LDC");
+            write(",");
+            string(ldc(value));
+            write(",");
+            constant(value);
+            write("]");
+        }
+
+        @Override
+        public void visitIincInsn(final int var, final int increment) {
+            code("IINC");
+            write(",");
+            write(var);
+            write(",");
+            write(increment);
+            write("]");
+        }
+
+        @Override
+        public void visitTableSwitchInsn(final int min, final int max, final Label dflt, final Label... labels) {
+            code("TABLESWITCH");
+            write(",");
+            write(min);
+            write(",");
+            write(max);
+            write(",");
+            label(dflt);
+            write(",");
+            labels(labels);
+            write("]");
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(final Label dflt, final int[] keys, final Label[] labels) {
+            code("LOOKUPSWITCH");
+            write(",");
+            label(dflt);
+            write(",[");
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) write(",");
+                write(keys[i]);
+            }
+            write("],");
+            labels(labels);
+            write("]");
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(final String descriptor, final int numDimensions) {
+            code("MULTIANEWARRAY");
+            write(",");
+            string(descriptor);
+            write(",");
+            write(numDimensions);
+            write("]");
+        }
+
+        @Override
+        public void visitTryCatchBlock(final Label start, final Label end, final Label handler, final String type) {
+            sections.element("tryCatch");
+            write("[");
+            label(start);
+            write(",");
+            label(end);
+            write(",");
+            label(handler);
+            write(",");
+            string(type);
+            write("]");
+        }
+
+        @Override
+        public void visitLocalVariable(final String name, final String descriptor, final String signature,
+                                       final Label start, final Label end, final int index) {
+            sections.element("locals");
+            write("[");
+            string(name);
+            write(",");
+            string(descriptor);
+            write(",");
+            string(signature);
+            write(",");
+            label(start);
+            write(",");
+            label(end);
+            write(",");
+            write(index);
+            write("]");
+        }
+
+        @Override
+        public void visitLineNumber(final int line, final Label start) {
+            code("line");
+            write(",");
+            write(line);
+            write(",");
+            label(start);
+            write("]");
+        }
+
+        @Override
+        public void visitMaxs(final int maxStack, final int maxLocals) {
+            sections.key("maxStack");
+            write(maxStack);
+            sections.key("maxLocals");
+            write(maxLocals);
+        }
+
+        @Override
+        public void visitEnd() {
+            sections.close();
+        }
+
+        /**
+         * Starts the next instruction of the code
+         */
+        private void code(final String opcode) {
+            sections.element("code");
+            write("[");
+            string(opcode);
+        }
+
+        private void reference(final String owner, final String name, final String descriptor) {
+            write(",");
+            string(owner);
+            write(",");
+            string(name);
+            write(",");
+            string(descriptor);
+        }
+
+        private void label(final Label label) {
+            String name = labels.get(label);
+            if (name == null) {
+                name = "L" + labels.size();
+                labels.put(label, name);
+            }
+            string(name);
+        }
+
+        private void labels(final Label[] labels) {
+            write("[");
+            for (int i = 0; i < labels.length; i++) {
+                if (i > 0) write(",");
+                label(labels[i]);
+            }
+            write("]");
+        }
+
+        /**
+         * The verification types of a frame, such as "I" for an int, a class by its internal name
+         * or the label of the NEW instruction of an uninitialized object
+         */
+        private void types(final int count, final Object[] types) {
+            write("[");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) write(",");
+
+                final Object type = types[i];
+                if (type instanceof Integer) {
+                    string(VERIFICATION_TYPES[(Integer) type]);
+                } else if (type instanceof Label) {
+                    label((Label) type);
+                } else {
+                    string((String) type);
+                }
+            }
+            write("]");
+        }
+    }
+
+    private static String ldc(final Object value) {
+        if (value instanceof Integer) return "int";
+        if (value instanceof Float) return "float";
+        if (value instanceof Long) return "long";
+        if (value instanceof Double) return "double";
+        if (value instanceof String) return "string";
+        if (value instanceof Type) return ((Type) value).getSort() == Type.METHOD ? "methodType" : "class";
+        if (value instanceof Handle) return "handle";
+        return "condy";
+    }
+}
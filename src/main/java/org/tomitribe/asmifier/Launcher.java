@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.Main;
+
+import java.io.File;
+
+/**
+ * Runs the command in a running daemon, if there is one, and otherwise
+ * in this JVM.  Forwarding skips discovering the commands and loading
+ * ASM, leaving only the start of a bare JVM.
+ */
+public class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(final String... args) throws Exception {
+        if (forward(args)) {
+            final Integer status = Daemon.forward(Daemon.file(), new File("").getAbsolutePath(), args, System.out, System.err);
+            if (status != null) {
+                System.out.flush();
+                System.exit(status);
+            }
+        }
+
+        Main.main(args);
+    }
+
+    private static boolean forward(final String... args) {
+        // A watch outlives the client, it would keep running in the daemon after Ctrl-C,
+        // and stdin is not forwarded to the daemon
+        if (args.length == 0 || "daemon".equals(args[0]) || "watch".equals(args[0]) || "stream".equals(args[0])) return false;
+        return !"off".equalsIgnoreCase(System.getenv("ASMIFY_DAEMON"));
+    }
+}
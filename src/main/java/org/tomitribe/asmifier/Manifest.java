@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Records the CRC-32 and size of every entry converted into a destination
+ * directory, so a later run over a new build of the same archive only
+ * needs to convert the entries that changed.
+ *
+ * Entries are keyed by their path from the top of the archive, entries of
+ * nested archives being prefixed with the path of the nested archive.
+ * The first line holds the tool version and any settings that affect the
+ * output; a manifest written with different ones matches nothing.  Each
+ * following line holds the hex CRC-32, the size and the path separated by tabs.
+ *
+ *     # asmify 0.2
+ *     1c291ca3  1432   org/example/Orange.class
+ *     7d5e2a01  96133  WEB-INF/lib/colors.jar
+ *     58a8c1b4  2048   WEB-INF/lib/colors.jar/org/example/Green.class
+ */
+public class Manifest {
+
+    public static final String NAME = ".asmify-manifest";
+
+    private static final String VERSION = version();
+
+    private final String header;
+    private final Map<String, Record> records;
+
+    public Manifest(final String settings) {
+        this(header(settings), new LinkedHashMap<>());
+    }
+
+    private Manifest(final String header, final Map<String, Record> records) {
+        this.header = header;
+        this.records = records;
+    }
+
+    /**
+     * @return the manifest previously written to the directory, or an empty
+     * one if there is none or it was written by a different version or settings
+     */
+    public static Manifest read(final File dir, final String settings) throws IOException {
+        final Path path = new File(dir, NAME).toPath();
+        final Manifest manifest = new Manifest(header(settings), new TreeMap<>());
+
+        if (!Files.isRegularFile(path)) return manifest;
+
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            final boolean current = manifest.header.equals(reader.readLine());
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 3);
+                if (parts.length != 3) continue;
+
+                try {
+                    final long crc = Long.parseLong(parts[0], 16);
+                    final long size = Long.parseLong(parts[1]);
+
+                    // Outputs of a different version are still tracked so they can be removed
+                    manifest.records.put(parts[2], new Record(current ? crc : -1, current ? size : -1));
+                } catch (final NumberFormatException e) {
+                    // ignore the damaged line, the entry will be converted again
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    public synchronized void add(final String path, final long crc, final long size) {
+        if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) return;
+        records.put(path, new Record(crc, size));
+    }
+
+    /**
+     * Copies the records of everything under the nested archive from the
+     * previous manifest, used when the nested archive itself is unchanged
+     */
+    public synchronized void addAll(final Manifest previous, final String nested) {
+        records.putAll(previous.under(nested));
+    }
+
+    public synchronized boolean matches(final String path, final long crc, final long size) {
+        final Record record = records.get(path);
+        return record != null && crc != -1 && record.crc == crc && record.size == size;
+    }
+
+    /**
+     * Forgets the checksums so every entry is converted again, while the
+     * outputs of entries that no longer exist are still removed
+     */
+    public synchronized void invalidate() {
+        records.replaceAll((path, record) -> new Record(-1, -1));
+    }
+
+    private synchronized SortedMap<String, Record> under(final String nested) {
+        if (!(records instanceof TreeMap)) throw new IllegalStateException("Not a previous manifest");
+        final TreeMap<String, Record> sorted = (TreeMap<String, Record>) records;
+        return sorted.subMap(nested + "/", nested + "/\uffff");
+    }
+
+    /**
+     * @return the paths of all entries in this manifest that are absent from the other
+     */
+    public synchronized Collection<String> removed(final Manifest current) {
+        final List<String> removed = new ArrayList<>();
+        for (final String path : records.keySet()) {
+            if (!current.contains(path)) removed.add(path);
+        }
+        return removed;
+    }
+
+    private synchronized boolean contains(final String path) {
+        return records.containsKey(path);
+    }
+
+    /**
+     * Replaces the manifest in the directory atomically, an interrupted
+     * run leaves the previous manifest in place
+     */
+    public synchronized void write(final File dir) throws IOException {
+        Files.createDirectories(dir.toPath());
+
+        final Path tmp = new File(dir, NAME + ".tmp").toPath();
+        try (final BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(header);
+            writer.write('\n');
+            for (final Map.Entry<String, Record> entry : records.entrySet()) {
+                writer.write(Long.toHexString(entry.getValue().crc));
+                writer.write('\t');
+                writer.write(Long.toString(entry.getValue().size));
+                writer.write('\t');
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        }
+
+        Files.move(tmp, new File(dir, NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String header(final String settings) {
+        return "# asmify " + VERSION + (settings == null || settings.isEmpty() ? "" : " " + settings);
+    }
+
+    /**
+     * @return the version of this tool or "unknown" when not running from the released jar
+     */
+    public static String version() {
+        final String resource = "META-INF/maven/org.tomitribe.asmify/asmify/pom.properties";
+        try (final InputStream in = Manifest.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) return "unknown";
+            final Properties properties = new Properties();
+            properties.load(in);
+            return properties.getProperty("version", "unknown");
+        } catch (final IOException e) {
+            return "unknown";
+        }
+    }
+
+    private static class Record {
+        private final long crc;
+        private final long size;
+
+        Record(final long crc, final long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+}
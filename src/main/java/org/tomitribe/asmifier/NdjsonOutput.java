@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Streams every entry as one line of JSON, so each record can be handed on
+ * as soon as it is read.
+ *
+ *     {"path":"org/example/Orange.class.asm","text":"package asm.org.example;\n..."}
+ *     {"path":"META-INF/orange.txt","base64":"T3JhbmdlIGlzIHJhcmU="}
+ *
+ * The asmified output of classes is given as text, resources as base64
+ * since nothing tells whether their bytes are text.  Large resources are
+ * encoded as they are read rather than held in memory.  Classes written as
+ * {@link Format#json} are already JSON and are held as they are:
+ *
+ *     {"path":"org/example/Orange.class.asm","class":{"name":"org/example/Orange",...}}
+ */
+public class NdjsonOutput extends OrderedOutput {
+
+    private final Writer out;
+    private final boolean json;
+
+    /**
+     * @param out where the records are streamed as UTF-8, closed with this output
+     * @param window how many finished entries may wait for the ones before them
+     */
+    public NdjsonOutput(final OutputStream out, final int window) {
+        this(out, window, Format.asmifier);
+    }
+
+    /**
+     * @param format the format the classes were written in
+     */
+    public NdjsonOutput(final OutputStream out, final int window, final Format format) {
+        super(window);
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.json = format == Format.json;
+    }
+
+    @Override
+    protected void write(final String path, final byte[] bytes, final boolean asmified) throws IOException {
+        out.write("{\"path\":");
+        string(out, path);
+        if (asmified && json) {
+            // Without the line break ending the class
+            final String text = new String(bytes, StandardCharsets.UTF_8);
+            out.write(",\"class\":");
+            out.write(text, 0, text.endsWith("\n") ? text.length() - 1 : text.length());
+        } else if (asmified) {
+            out.write(",\"text\":");
+            string(out, new String(bytes, StandardCharsets.UTF_8));
+        } else {
+            out.write(",\"base64\":\"");
+            out.write(Base64.getEncoder().encodeToString(bytes));
+            out.write('"');
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * Any resource can be encoded as it is read, whether its size is known or not
+     */
+    @Override
+    protected boolean streams(final long crc, final long size) {
+        return true;
+    }
+
+    @Override
+    protected void write(final String path, final InputStream in, final long crc, final long size) throws IOException {
+        out.write("{\"path\":");
+        string(out, path);
+        out.write(",\"base64\":\"");
+
+        // Closing the encoder writes the last padded group, not closing the writer
+        try (final OutputStream base64 = Base64.getEncoder().wrap(new Ascii(out))) {
+            final byte[] buffer = new byte[48 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                base64.write(buffer, 0, read);
+            }
+        }
+
+        out.write("\"}\n");
+    }
+
+    /**
+     * Writes the value as a JSON string
+     */
+    static void string(final Writer writer, final String value) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+
+            writer.write(value, start, i - start);
+            start = i + 1;
+            if (c == '\n') {
+                writer.write("\\n");
+            } else if (c == '\t') {
+                writer.write("\\t");
+            } else if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else {
+                writer.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+
+    /**
+     * Every record stands on its own, there is nothing to end the stream with
+     */
+    @Override
+    protected void finish(final boolean failed) throws IOException {
+        out.close();
+    }
+
+    /**
+     * Hands the ASCII output of the encoder to the writer one char per byte,
+     * left open when closed
+     */
+    private static class Ascii extends OutputStream {
+
+        private final Writer writer;
+        private final char[] chars = new char[8 * 1024];
+
+        Ascii(final Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            writer.write(b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            int done = 0;
+            while (done < length) {
+                final int n = Math.min(chars.length, length - done);
+                for (int i = 0; i < n; i++) {
+                    chars[i] = (char) bytes[offset + done + i];
+                }
+                writer.write(chars, 0, n);
+                done += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.ClassReader;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes every entry one after the other into a single stream, such as
+ * a zip or tar archive.
+ *
+ * Entries are written in the order they were reserved, whichever worker
+ * finishes first, so the stream is the same for any number of threads.
+ * Finished entries wait in memory for the ones before them; a worker gets
+ * blocked once it is too far ahead so that memory stays bounded however
+ * large the input.
+ */
+public abstract class OrderedOutput implements Output {
+
+    private final int window;
+    private final Map<Long, Pending> pending = new HashMap<>();
+    private final Set<String> names = new HashSet<>();
+
+    private long reserved;
+    private long next;
+    private boolean aborted;
+    private boolean failed;
+
+    /**
+     * @param window how many finished entries may wait for the ones before them
+     */
+    protected OrderedOutput(final int window) {
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public Entry entry(final String path) {
+        final long ticket = reserved++;
+        return new Entry() {
+            @Override
+            public void asmify(final byte[] bytes, final Selector selector, final Cache cache, final Stats stats) throws IOException {
+                commit(ticket, path, OrderedOutput.asmify(bytes, selector, cache, stats), true);
+            }
+
+            @Override
+            public void copy(final byte[] bytes) throws IOException {
+                commit(ticket, path, bytes, false);
+            }
+
+            @Override
+            public void copy(final InputStream in, final long crc, final long size) throws IOException {
+                if (streams(crc, size)) {
+                    stream(ticket, path, in, crc, size);
+                } else {
+                    commit(ticket, path, IO.readBytes(in), false);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the next entry to the stream, called in the order the entries were reserved
+     *
+     * @param asmified true for the asmified output of a class, false for a resource copied as it is
+     */
+    protected abstract void write(String path, byte[] bytes, boolean asmified) throws IOException;
+
+    /**
+     * @return true if a resource with this CRC-32 and size can be written
+     * to the stream as it is read, otherwise it is read into memory first
+     */
+    protected boolean streams(final long crc, final long size) {
+        return false;
+    }
+
+    /**
+     * Writes the next entry to the stream as it is read, called in the
+     * order the entries were reserved and only if {@link #streams(long, long)}
+     * accepted it.  Unless overridden the entry is read into memory first.
+     */
+    protected void write(final String path, final InputStream in, final long crc, final long size) throws IOException {
+        write(path, IO.readBytes(in), false);
+    }
+
+    /**
+     * Ends the stream once every entry was written or the output was aborted
+     *
+     * @param failed true when the output was aborted, the stream must then
+     * not be ended in a way that makes it look complete
+     */
+    protected abstract void finish(boolean failed) throws IOException;
+
+    private static byte[] asmify(final byte[] bytes, final Selector selector, final Cache cache, final Stats stats) throws IOException {
+        final String key = cache != null ? cache.key(bytes) : null;
+
+        if (key != null) {
+            final byte[] cached = cache.read(key);
+            if (cached != null) {
+                if (stats != null) stats.cached();
+                return cached;
+            }
+        }
+
+        final ByteArrayOutputStream asm = new ByteArrayOutputStream(bytes.length * 8);
+        try (final ChannelWriter writer = ChannelWriter.of(Channels.newChannel(asm))) {
+            Asmifier.write(new ClassReader(bytes), writer, selector, stats);
+        }
+        final byte[] output = asm.toByteArray();
+
+        if (key != null) cache.put(key, output);
+
+        return output;
+    }
+
+    /**
+     * Writes the entry and any finished entries after it once all entries
+     * before it are written
+     */
+    private synchronized void commit(final long ticket, final String path, final byte[] bytes, final boolean asmified) throws IOException {
+        try {
+            while (!aborted && ticket - next >= window) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for earlier entries");
+        }
+
+        if (aborted) return;
+
+        pending.put(ticket, new Pending(path, bytes, asmified));
+
+        try {
+            Pending entry;
+            while ((entry = pending.remove(next)) != null) {
+                // An archive may list the same name twice, keep the first
+                if (names.add(entry.path)) write(entry.path, entry.bytes, entry.asmified);
+                next++;
+            }
+        } catch (final IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Waits for all entries before this one to be written, then writes it
+     * straight from the stream followed by any finished entries after it
+     */
+    private synchronized void stream(final long ticket, final String path, final InputStream in, final long crc, final long size) throws IOException {
+        try {
+            while (!aborted && ticket != next) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for earlier entries");
+        }
+
+        if (aborted) return;
+
+        try {
+            if (names.add(path)) write(path, in, crc, size);
+            next++;
+
+            Pending entry;
+            while ((entry = pending.remove(next)) != null) {
+                if (names.add(entry.path)) write(entry.path, entry.bytes, entry.asmified);
+                next++;
+            }
+        } catch (final IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Entries will never be missing from a stream created by this run
+     */
+    @Override
+    public boolean exists(final String path) {
+        return false;
+    }
+
+    @Override
+    public void delete(final String path) {
+    }
+
+    @Override
+    public File directory() {
+        return null;
+    }
+
+    /**
+     * Releases the workers waiting on an entry that will never be written
+     */
+    @Override
+    public synchronized void abort() {
+        aborted = true;
+        failed = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        aborted = true;
+        notifyAll();
+        finish(failed);
+    }
+
+    private static class Pending {
+        private final String path;
+        private final byte[] bytes;
+        private final boolean asmified;
+
+        Pending(final String path, final byte[] bytes, final boolean asmified) {
+            this.path = path;
+            this.bytes = bytes;
+            this.asmified = asmified;
+        }
+    }
+}
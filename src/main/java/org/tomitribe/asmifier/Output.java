@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the converted entries of an archive end up.
+ *
+ * Paths are relative to the top of the archive, entries of nested archives
+ * being prefixed with the path of the nested archive.  Entries are reserved
+ * in order on the reading thread and written by the workers in any order.
+ */
+public interface Output extends Closeable {
+
+    /**
+     * Reserves the place of the next entry, called on the reading thread
+     */
+    Entry entry(String path) throws IOException;
+
+    /**
+     * @return true if the output of a previous run is present at this path
+     */
+    boolean exists(String path);
+
+    /**
+     * Removes the output of a previous run
+     */
+    void delete(String path) throws IOException;
+
+    /**
+     * @return the directory holding the output, or null if the output is not a directory
+     */
+    File directory();
+
+    /**
+     * Called when a worker failed and the output will never be complete
+     */
+    default void abort() {
+    }
+
+    interface Entry {
+
+        /**
+         * Writes the asmified class
+         *
+         * @param selector the fields and methods to asmify
+         * @param cache the cache to consult, may be null
+         * @param stats where to record the timings, may be null
+         */
+        void asmify(byte[] bytes, Selector selector, Cache cache, Stats stats) throws IOException;
+
+        /**
+         * Writes the bytes as they are
+         */
+        void copy(byte[] bytes) throws IOException;
+
+        /**
+         * Writes the bytes read from the stream as they are, through a
+         * fixed buffer where the output allows it.  The stream is not closed.
+         *
+         * @param crc the CRC-32 of the bytes or -1 if not known before they are read
+         * @param size the number of bytes or -1 if not known before they are read
+         */
+        void copy(InputStream in, long crc, long size) throws IOException;
+
+        /**
+         * Writes the entry of the archive as it is, without inflating
+         * it into memory as a whole
+         */
+        default void copy(final CentralDirectory directory, final CentralDirectory.Entry entry) throws IOException {
+            try (final InputStream in = directory.open(entry)) {
+                copy(in, entry.getCrc(), entry.getSize());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.Options;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * What the commands converting archives write and in which form
+ */
+@Options
+public class OutputOptions {
+
+    private final boolean archive;
+    private final int level;
+    private final boolean index;
+    private final Format format;
+
+    public OutputOptions(@Option("archive") final boolean archive,
+                         @Option("level") @Default("-1") final int level,
+                         @Option("index") final boolean index,
+                         @Option("format") @Default("asmifier") final Format format) {
+        this.archive = archive;
+        this.level = level;
+        this.index = index;
+        this.format = format;
+    }
+
+    /**
+     * @return true to write a single zip file instead of a folder
+     */
+    public boolean archive() {
+        return archive;
+    }
+
+    /**
+     * @return true to write an {@link Index} of the classes along with their output
+     */
+    public boolean index() {
+        return index;
+    }
+
+    /**
+     * @return the format the classes are written in
+     */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * @return the selection of the filters written in the chosen format
+     */
+    public Selector selector(final FilterOptions filters) {
+        return filters.selector().format(format);
+    }
+
+    /**
+     * @throws ExitWithMessageException if the options do not make sense
+     */
+    public void validate() {
+        if (level < -1 || level > 9) {
+            throw new ExitWithMessageException("The level must be between -1 and 9");
+        }
+    }
+
+    /**
+     * @param parent the directory to write into
+     * @param name the name of the input, which the folder or archive is named after
+     * @param threads the number of threads writing to the output
+     */
+    public Output open(final File parent, final String name, final int threads) throws IOException {
+        if (archive) return new ArchiveOutput(new File(parent, name + ".zip"), level, threads * 16);
+        return new DirectoryOutput(new File(parent, name));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The modules of a Java runtime image, read through its jrt:/ file system
+ * rather than from the jmod files it was linked from, which a runtime
+ * usually does not ship.
+ *
+ * The image of the running JVM is read by default.  Another JDK 9 or
+ * later is read by loading the jrt file system provider of that JDK.
+ */
+public class RuntimeImage implements Closeable {
+
+    private final File home;
+    private final FileSystem fileSystem;
+    private final boolean owned;
+
+    /**
+     * @param home the java home of the runtime, or null for the running JVM
+     */
+    public RuntimeImage(final File home) throws IOException {
+        final URI jrt = URI.create("jrt:/");
+
+        if (home == null) {
+            this.home = new File(System.getProperty("java.home"));
+            this.fileSystem = FileSystems.getFileSystem(jrt);
+            this.owned = false;
+        } else {
+            if (!new File(home, "lib/modules").isFile()) {
+                throw new IOException("Not a Java 9 or later runtime image: " + home.getAbsolutePath());
+            }
+            this.home = home;
+            this.fileSystem = FileSystems.newFileSystem(jrt, Collections.singletonMap("java.home", home.getAbsolutePath()));
+            this.owned = true;
+        }
+    }
+
+    /**
+     * @return the directory holding a folder per module
+     */
+    public Path root() {
+        return fileSystem.getPath("/modules");
+    }
+
+    /**
+     * @return the names of every module of the image in name order
+     */
+    public List<String> modules() throws IOException {
+        final List<String> modules = new ArrayList<>();
+        try (final DirectoryStream<Path> dirs = Files.newDirectoryStream(root())) {
+            for (final Path dir : dirs) {
+                modules.add(dir.getFileName().toString());
+            }
+        }
+        Collections.sort(modules);
+        return modules;
+    }
+
+    /**
+     * @return the name of the image taken from the version in its release
+     * file, such as jdk-17.0.9, or jdk if it has none
+     */
+    public String name() {
+        final File release = new File(home, "release");
+        if (!release.isFile()) return "jdk";
+
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(release.toPath())) {
+            properties.load(in);
+        } catch (final IOException e) {
+            return "jdk";
+        }
+
+        final String version = properties.getProperty("JAVA_VERSION", "").replace("\"", "").trim();
+        return version.isEmpty() ? "jdk" : "jdk-" + version;
+    }
+
+    /**
+     * The file system of the running JVM is shared and stays open
+     */
+    @Override
+    public void close() throws IOException {
+        if (owned) fileSystem.close();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the classes, and the fields and methods within them, to asmify.
+ *
+ * Classes are selected by name, such as {@code org.example.Parser}, by
+ * simple name, such as {@code Parser}, or with the globs of a {@link Filter},
+ * such as {@code org.example.*Parser}.  The names are turned into globs
+ * over the path of the class file, so unselected class entries are never
+ * even read.
+ *
+ * Members are selected by name, such as {@code parse}, or by name and
+ * descriptor, such as {@code parse(Ljava/lang/String;)V}.  Names may use
+ * {@code *} and {@code ?}.  Unselected members are dropped by a
+ * {@link ClassVisitor} in front of the printer, so ClassReader skips their
+ * code and they are never turned into text.  Names without wildcards are
+ * looked up in a hash set.
+ *
+ * Without any selector of a kind everything of that kind is selected.
+ *
+ * The {@link ClassReader} flags select what is read of each member.
+ * By default debug information is skipped.  {@link ClassReader#SKIP_CODE}
+ * leaves only the structure of the class: its header, annotations,
+ * fields and method signatures, which is all an API survey needs and
+ * far cheaper to read and print than every instruction.
+ *
+ * The {@link Format} the selected classes are written in travels with
+ * the selector, as it shapes the output just as much.
+ */
+public class Selector {
+
+    public static final Selector ALL = new Selector(null, null, null);
+
+    private final Filter classes;
+    private final Members fields;
+    private final Members methods;
+    private final int flags;
+    private final Format format;
+    private final UnaryOperator<ClassVisitor> tee;
+    private final String description;
+
+    public Selector(final Collection<String> classes, final Collection<String> fields, final Collection<String> methods) {
+        this(classes, fields, methods, ClassReader.SKIP_DEBUG);
+    }
+
+    /**
+     * @param flags the {@link ClassReader} parsing options
+     */
+    public Selector(final Collection<String> classes, final Collection<String> fields, final Collection<String> methods,
+                    final int flags) {
+        this.classes = classes == null || classes.isEmpty() ? Filter.ALL : new Filter(globs(classes), null);
+        this.fields = new Members(fields);
+        this.methods = new Members(methods);
+        this.flags = flags;
+        this.format = Format.asmifier;
+        this.tee = null;
+        this.description = "classes=" + list(classes) + " fields=" + list(fields) + " methods=" + list(methods)
+                + " flags=" + flags;
+    }
+
+    private Selector(final Selector selector, final Format format) {
+        this.classes = selector.classes;
+        this.fields = selector.fields;
+        this.methods = selector.methods;
+        this.flags = selector.flags;
+        this.format = format;
+        this.tee = selector.tee;
+        this.description = selector.description;
+    }
+
+    private Selector(final Selector selector, final UnaryOperator<ClassVisitor> tee) {
+        this.classes = selector.classes;
+        this.fields = selector.fields;
+        this.methods = selector.methods;
+        this.flags = selector.flags;
+        this.format = selector.format;
+        this.tee = tee;
+        this.description = selector.description;
+    }
+
+    /**
+     * @return the same selection written in the given format
+     */
+    public Selector format(final Format format) {
+        if (format == null || format == this.format) return this;
+        return new Selector(this, format);
+    }
+
+    /**
+     * Lets another visitor see the selected members as they are read, such
+     * as an {@link Index.Tee} indexing the class while it is asmified.  It
+     * does not change the output, so it is not part of {@link #toString()}.
+     *
+     * @param tee puts a visitor in front of the printer that passes every event on to it
+     * @return the same selection, also shown to that visitor
+     */
+    public Selector tee(final UnaryOperator<ClassVisitor> tee) {
+        return new Selector(this, tee);
+    }
+
+    /**
+     * @param structureOnly skip the code of every method
+     * @param skipFrames skip the stack map frames
+     * @param keepDebug keep the source file, line numbers and local variable names
+     * @return the {@link ClassReader} parsing options for the given choices
+     */
+    public static int flags(final boolean structureOnly, final boolean skipFrames, final boolean keepDebug) {
+        int flags = keepDebug ? 0 : ClassReader.SKIP_DEBUG;
+        if (structureOnly) flags |= ClassReader.SKIP_CODE;
+        if (skipFrames) flags |= ClassReader.SKIP_FRAMES;
+        return flags;
+    }
+
+    /**
+     * @return the {@link ClassReader} parsing options
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return how the selected classes are written
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @param path the path of a class file, such as org/example/Parser.class or WEB-INF/classes/org/example/Parser.class
+     */
+    public boolean accept(final String path) {
+        return classes.accept(path);
+    }
+
+    /**
+     * @return whether every field and method of a selected class is kept
+     */
+    public boolean isAllMembers() {
+        return fields.all && methods.all;
+    }
+
+    /**
+     * Wraps the visitor so it only sees the selected fields and methods
+     */
+    public ClassVisitor filter(final ClassVisitor visitor) {
+        final ClassVisitor target = tee == null ? visitor : tee.apply(visitor);
+        if (isAllMembers()) return target;
+
+        return new ClassVisitor(Opcodes.ASM9, target) {
+            @Override
+            public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                           final String signature, final Object value) {
+                if (!fields.accept(name, descriptor)) return null;
+                return super.visitField(access, name, descriptor, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                             final String signature, final String[] exceptions) {
+                if (!methods.accept(name, descriptor)) return null;
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+        };
+    }
+
+    /**
+     * Shapes the output, so it is part of the cache key and the incremental manifest
+     */
+    @Override
+    public String toString() {
+        // Left out for the default so existing caches and manifests stay valid
+        return format == Format.asmifier ? description : description + " format=" + format;
+    }
+
+    /**
+     * A dotted class name becomes a glob over its path in any directory,
+     * a simple name one over the file name alone
+     */
+    private static List<String> globs(final Collection<String> classes) {
+        final List<String> globs = new ArrayList<>();
+        for (final String name : classes) {
+            if (name == null || name.isEmpty()) continue;
+            final String path = name.replace('.', '/');
+            globs.add((path.indexOf('/') < 0 ? path : "**/" + path) + ".class");
+        }
+        return globs;
+    }
+
+    private static List<String> list(final Collection<String> names) {
+        if (names == null) return Collections.emptyList();
+        final List<String> list = new ArrayList<>(names);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static class Members {
+        private final boolean all;
+        private final Set<String> names = new HashSet<>();
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        Members(final Collection<String> selectors) {
+            if (selectors != null) {
+                for (final String selector : selectors) {
+                    if (selector == null || selector.isEmpty()) continue;
+
+                    if (selector.indexOf('*') < 0 && selector.indexOf('?') < 0) {
+                        names.add(selector);
+                    } else {
+                        patterns.add(Filter.compile(selector.replace('/', '.')));
+                    }
+                }
+            }
+            this.all = names.isEmpty() && patterns.isEmpty();
+        }
+
+        boolean accept(final String name, final String descriptor) {
+            if (all || names.contains(name)) return true;
+
+            final String member = name + descriptor;
+            if (names.contains(member)) return true;
+
+            // Globs are compiled over dots instead of slashes so a * can span a descriptor
+            final String dotted = member.replace('/', '.');
+            for (final Pattern pattern : patterns) {
+                if (pattern.matcher(name).matches() || pattern.matcher(dotted).matches()) return true;
+            }
+            return false;
+        }
+    }
+}
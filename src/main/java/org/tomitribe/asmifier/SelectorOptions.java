@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.objectweb.asm.ClassReader;
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.Options;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The selectors of the classes and members to asmify, how much of them
+ * to read and the format they are written in, for the commands reading a
+ * single class.  Commands walking archives take them as part of their
+ * {@link FilterOptions}.
+ */
+@Options
+public class SelectorOptions {
+
+    private final Selector selector;
+
+    public SelectorOptions(@Option("class") final String[] classes,
+                           @Option("field") final String[] fields,
+                           @Option("method") final String[] methods,
+                           @Option("structure-only") final boolean structureOnly,
+                           @Option("skip-frames") final boolean skipFrames,
+                           @Option("keep-debug") final boolean keepDebug,
+                           @Option("format") @Default("asmifier") final Format format) {
+        this.selector = selector(classes, fields, methods, Selector.flags(structureOnly, skipFrames, keepDebug)).format(format);
+    }
+
+    /**
+     * @return the classes and members to asmify and how they are written
+     */
+    public Selector selector() {
+        return selector;
+    }
+
+    static Selector selector(final String[] classes, final String[] fields, final String[] methods, final int flags) {
+        if (classes == null && fields == null && methods == null && flags == ClassReader.SKIP_DEBUG) return Selector.ALL;
+        return new Selector(list(classes), list(fields), list(methods), flags);
+    }
+
+    private static List<String> list(final String[] names) {
+        return names == null ? null : Arrays.asList(names);
+    }
+}
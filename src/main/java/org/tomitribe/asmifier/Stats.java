@@ -0,0 +1,282 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and timings of a run, collected when asked for with --stats.
+ *
+ * Phases are summed over all threads, so with several workers their
+ * total may exceed the elapsed time of the run.  Each archive, nested
+ * or not, gets its own entry and byte counts.  The slowest and largest
+ * classes are kept so pathological classes can be found.
+ */
+public class Stats {
+
+    public enum Phase {
+        /** Reading and inflating entries and buffering nested archives */
+        INFLATE,
+        /** Parsing the class bytes and generating the ASM code, done in a single pass */
+        ASMIFY,
+        /** Writing the output */
+        WRITE
+    }
+
+    private final int top;
+    private final long started = System.nanoTime();
+    private long finished;
+
+    private final Map<Phase, LongAdder> phases = new EnumMap<>(Phase.class);
+    private final LongAdder cached = new LongAdder();
+    private final Map<String, Archive> archives = new TreeMap<>();
+    private final PriorityQueue<Clazz> slowest = new PriorityQueue<>(Comparator.comparingLong(clazz -> clazz.nanos));
+    private final PriorityQueue<Clazz> largest = new PriorityQueue<>(Comparator.comparingLong(clazz -> clazz.size));
+
+    /**
+     * @param top how many of the slowest and largest classes to keep
+     */
+    public Stats(final int top) {
+        this.top = Math.max(0, top);
+        for (final Phase phase : Phase.values()) {
+            phases.put(phase, new LongAdder());
+        }
+    }
+
+    public void add(final Phase phase, final long nanos) {
+        phases.get(phase).add(nanos);
+    }
+
+    /**
+     * Counts a class whose output was taken from the cache
+     */
+    public void cached() {
+        cached.increment();
+    }
+
+    /**
+     * Counts an entry read from an archive
+     *
+     * @param archive the path of the archive from the top, empty for the top archive itself
+     */
+    public synchronized void entry(final String archive, final boolean clazz, final long size, final long compressedSize) {
+        final Archive counts = archives.computeIfAbsent(archive, Archive::new);
+        if (clazz) {
+            counts.classes++;
+        } else {
+            counts.resources++;
+        }
+        counts.bytes += Math.max(0, size);
+        counts.compressedBytes += Math.max(0, compressedSize);
+    }
+
+    /**
+     * Records how long the class took from its bytes to its output
+     */
+    public synchronized void clazz(final String path, final long size, final long nanos) {
+        keep(slowest, new Clazz(path, size, nanos));
+        keep(largest, new Clazz(path, size, nanos));
+    }
+
+    private void keep(final PriorityQueue<Clazz> queue, final Clazz clazz) {
+        if (top == 0) return;
+        queue.add(clazz);
+        if (queue.size() > top) queue.poll();
+    }
+
+    /**
+     * Stops the clock of the run
+     */
+    public synchronized void finish() {
+        if (finished == 0) finished = System.nanoTime();
+    }
+
+    private long elapsed() {
+        return (finished != 0 ? finished : System.nanoTime()) - started;
+    }
+
+    private synchronized Archive total() {
+        final Archive total = new Archive("");
+        for (final Archive archive : archives.values()) {
+            total.classes += archive.classes;
+            total.resources += archive.resources;
+            total.bytes += archive.bytes;
+            total.compressedBytes += archive.compressedBytes;
+        }
+        return total;
+    }
+
+    private static List<Clazz> sorted(final PriorityQueue<Clazz> queue) {
+        final List<Clazz> list = new ArrayList<>(queue);
+        list.sort(queue.comparator().reversed());
+        return list;
+    }
+
+    /**
+     * @return a human readable summary of the run
+     */
+    public synchronized String summary() {
+        final Archive total = total();
+        final double seconds = seconds(elapsed());
+        final StringBuilder out = new StringBuilder();
+
+        out.append(format("%d classes and %d resources, %s read in %.2fs%n",
+                total.classes, total.resources, megabytes(total.bytes), seconds));
+        out.append(format("%.1f classes/s, %.2f MB/s%n",
+                total.classes / seconds, total.bytes / 1024.0 / 1024.0 / seconds));
+        if (cached.sum() > 0) out.append(format("%d classes taken from the cache%n", cached.sum()));
+
+        out.append(format("%nPhases (summed over all threads)%n"));
+        for (final Phase phase : Phase.values()) {
+            out.append(format("  %-8s %10.3fs%n", phase.name().toLowerCase(Locale.ROOT), seconds(phases.get(phase).sum())));
+        }
+
+        out.append(format("%nArchives%n"));
+        for (final Archive archive : archives.values()) {
+            out.append(format("  %8d classes %8d resources %12s  %s%n",
+                    archive.classes, archive.resources, megabytes(archive.bytes), archive.name.isEmpty() ? "." : archive.name));
+        }
+
+        if (!slowest.isEmpty()) {
+            out.append(format("%nSlowest classes%n"));
+            for (final Clazz clazz : sorted(slowest)) {
+                out.append(format("  %10.3fms  %s%n", clazz.nanos / 1e6, clazz.path));
+            }
+
+            out.append(format("%nLargest classes%n"));
+            for (final Clazz clazz : sorted(largest)) {
+                out.append(format("  %10d bytes  %s%n", clazz.size, clazz.path));
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Writes the report as a JSON document
+     */
+    public synchronized void json(final Writer writer) throws IOException {
+        final Archive total = total();
+        final long elapsed = elapsed();
+        final double seconds = seconds(elapsed);
+
+        writer.write("{\n");
+        writer.write(format("  \"elapsedMillis\": %d,\n", elapsed / 1000000));
+        writer.write(format("  \"classes\": %d,\n", total.classes));
+        writer.write(format("  \"resources\": %d,\n", total.resources));
+        writer.write(format("  \"bytes\": %d,\n", total.bytes));
+        writer.write(format("  \"compressedBytes\": %d,\n", total.compressedBytes));
+        writer.write(format("  \"cachedClasses\": %d,\n", cached.sum()));
+        writer.write(format("  \"classesPerSecond\": %.1f,\n", total.classes / seconds));
+        writer.write(format("  \"megabytesPerSecond\": %.3f,\n", total.bytes / 1024.0 / 1024.0 / seconds));
+
+        writer.write("  \"phaseMillis\": {");
+        String separator = "\n";
+        for (final Phase phase : Phase.values()) {
+            writer.write(separator);
+            writer.write(format("    \"%s\": %d", phase.name().toLowerCase(Locale.ROOT), phases.get(phase).sum() / 1000000));
+            separator = ",\n";
+        }
+        writer.write("\n  },\n");
+
+        writer.write("  \"archives\": [");
+        separator = "\n";
+        for (final Archive archive : archives.values()) {
+            writer.write(separator);
+            writer.write(format("    {\"path\": %s, \"classes\": %d, \"resources\": %d, \"bytes\": %d, \"compressedBytes\": %d}",
+                    quote(archive.name), archive.classes, archive.resources, archive.bytes, archive.compressedBytes));
+            separator = ",\n";
+        }
+        writer.write("\n  ],\n");
+
+        writer.write("  \"slowest\": ");
+        json(writer, sorted(slowest));
+        writer.write(",\n  \"largest\": ");
+        json(writer, sorted(largest));
+        writer.write("\n}\n");
+        writer.flush();
+    }
+
+    private static void json(final Writer writer, final List<Clazz> classes) throws IOException {
+        writer.write("[");
+        String separator = "\n";
+        for (final Clazz clazz : classes) {
+            writer.write(separator);
+            writer.write(format("    {\"path\": %s, \"bytes\": %d, \"micros\": %d}", quote(clazz.path), clazz.size, clazz.nanos / 1000));
+            separator = ",\n";
+        }
+        writer.write(classes.isEmpty() ? "]" : "\n  ]");
+    }
+
+    static String quote(final String string) {
+        final StringBuilder quoted = new StringBuilder(string.length() + 2).append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String format(final String format, final Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+
+    private static double seconds(final long nanos) {
+        return Math.max(nanos, 1) / 1e9;
+    }
+
+    private static String megabytes(final long bytes) {
+        return format("%.2f MB", bytes / 1024.0 / 1024.0);
+    }
+
+    private static class Archive {
+        private final String name;
+        private long classes;
+        private long resources;
+        private long bytes;
+        private long compressedBytes;
+
+        Archive(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Clazz {
+        private final String path;
+        private final long size;
+        private final long nanos;
+
+        Clazz(final String path, final long size, final long nanos) {
+            this.path = path;
+            this.size = size;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.crest.api.Default;
+import org.tomitribe.crest.api.Option;
+import org.tomitribe.crest.api.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Whether to collect {@link Stats} and where to report them
+ */
+@Options
+public class StatsOptions {
+
+    private final boolean print;
+    private final File json;
+    private final int top;
+
+    public StatsOptions(@Option("stats") final boolean print,
+                        @Option("stats-json") final File json,
+                        @Option("stats-top") @Default("10") final int top) {
+        this.print = print;
+        this.json = json;
+        this.top = top;
+    }
+
+    /**
+     * @return new stats or null if no report was asked for
+     */
+    public Stats stats() {
+        if (!print && json == null) return null;
+        return new Stats(top);
+    }
+
+    /**
+     * Prints the summary and writes the JSON report as asked
+     */
+    public void report(final Stats stats, final PrintStream out) throws IOException {
+        if (stats == null) return;
+
+        stats.finish();
+
+        if (print) out.print(stats.summary());
+
+        if (json != null) {
+            try (final Writer writer = Files.newBufferedWriter(json.toPath(), StandardCharsets.UTF_8)) {
+                stats.json(writer);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+
+/**
+ * The forms in which `asmify stream` writes the converted entries,
+ * named as they are given on the command line
+ */
+public enum StreamFormat {
+
+    zip {
+        @Override
+        public Output open(final OutputStream out, final int level, final int window, final Format format) {
+            return new ArchiveOutput(new BufferedOutputStream(out, 64 * 1024), level, window);
+        }
+    },
+
+    tar {
+        @Override
+        public Output open(final OutputStream out, final int level, final int window, final Format format) {
+            return new TarOutput(new BufferedOutputStream(out, 64 * 1024), window);
+        }
+    },
+
+    ndjson {
+        @Override
+        public Output open(final OutputStream out, final int level, final int window, final Format format) {
+            return new NdjsonOutput(out, window, format);
+        }
+    };
+
+    /**
+     * @param out where the entries are streamed, closed with the output
+     * @param level the deflate level of zip entries, ignored by the other forms
+     * @param window how many finished entries may wait for the ones before them
+     * @param format the format of the classes, which ndjson records hold as they are when it is json
+     */
+    public abstract Output open(OutputStream out, int level, int window, Format format);
+}
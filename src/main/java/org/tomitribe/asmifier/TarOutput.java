@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streams every entry into a tar archive, as read by tar and most object
+ * stores' bulk upload.
+ *
+ * Entries are plain ustar files with mode 644 and a zero timestamp, so
+ * the same input produces the same bytes.  Paths longer than the 100
+ * bytes of the ustar header, or that are not ASCII, are given in a pax
+ * extended header before the entry.
+ */
+public class TarOutput extends OrderedOutput {
+
+    private static final int BLOCK = 512;
+
+    private final OutputStream out;
+    private final byte[] header = new byte[BLOCK];
+
+    /**
+     * @param out where the archive is streamed, closed with this output
+     * @param window how many finished entries may wait for the ones before them
+     */
+    public TarOutput(final OutputStream out, final int window) {
+        super(window);
+        this.out = out;
+    }
+
+    @Override
+    protected void write(final String path, final byte[] bytes, final boolean asmified) throws IOException {
+        header(path, bytes.length);
+        data(bytes);
+    }
+
+    /**
+     * The size is recorded in the header, so only a resource of known size is streamed
+     */
+    @Override
+    protected boolean streams(final long crc, final long size) {
+        return size >= 0;
+    }
+
+    @Override
+    protected void write(final String path, final InputStream in, final long crc, final long size) throws IOException {
+        header(path, size);
+
+        final byte[] buffer = new byte[64 * 1024];
+        long remaining = size;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException("Expected " + size + " bytes for " + path);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        if (in.read() >= 0) throw new IOException("More than the expected " + size + " bytes for " + path);
+
+        final int padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+        if (padding > 0) out.write(new byte[BLOCK], 0, padding);
+    }
+
+    /**
+     * Writes the header of a file, preceded by a pax header when the path does not fit
+     */
+    private void header(final String path, final long size) throws IOException {
+        final byte[] name = path.getBytes(StandardCharsets.UTF_8);
+
+        if (name.length > 100 || name.length != path.length()) {
+            final byte[] pax = pax("path", path);
+            header(name, pax.length, 'x');
+            data(pax);
+        }
+
+        header(name, size, '0');
+    }
+
+    private void header(final byte[] name, final long size, final char type) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(100, 8, 0644);
+        octal(108, 8, 0);
+        octal(116, 8, 0);
+        octal(124, 12, size);
+        octal(136, 12, 0);
+        header[156] = (byte) type;
+        ascii(257, "ustar\0");
+        ascii(263, "00");
+
+        // The checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(148, 7, checksum);
+
+        out.write(header);
+    }
+
+    private void data(final byte[] bytes) throws IOException {
+        out.write(bytes);
+        final int padding = (BLOCK - bytes.length % BLOCK) % BLOCK;
+        if (padding > 0) out.write(new byte[BLOCK], 0, padding);
+    }
+
+    /**
+     * @return a pax record, its length counting the digits of the length itself
+     */
+    private static byte[] pax(final String key, final String value) {
+        final int content = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = content + 1;
+        while (Integer.toString(length).length() + content != length) {
+            length++;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the value as zero padded octal digits followed by a NUL
+     */
+    private void octal(final int offset, final int length, final long value) {
+        final String digits = Long.toOctalString(value);
+        final int width = length - 1;
+        for (int i = 0; i < width; i++) {
+            final int digit = i - (width - digits.length());
+            header[offset + i] = (byte) (digit < 0 ? '0' : digits.charAt(digit));
+        }
+        header[offset + width] = 0;
+    }
+
+    private void ascii(final int offset, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            header[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Ends the archive with two empty blocks, left out when it failed so
+     * the truncated archive is not read as complete
+     */
+    @Override
+    protected void finish(final boolean failed) throws IOException {
+        try {
+            if (!failed) out.write(new byte[BLOCK * 2]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line based diff in the unified format of diff -u and git.
+ *
+ * The lines in between the common head and tail are compared with
+ * Myers' O(ND) algorithm, so the cost grows with the number of changed
+ * lines rather than with the size of the text.  Asmified classes that
+ * differ by a few instructions are compared in next to no time.
+ */
+public class UnifiedDiff {
+
+    private UnifiedDiff() {
+    }
+
+    /**
+     * Writes the headers and hunks turning one text into the other,
+     * or nothing at all if both are the same
+     *
+     * @param from the name of the old text, such as a/Orange.class.asm or /dev/null
+     * @param to the name of the new text
+     * @param context how many unchanged lines to show around each change
+     */
+    public static void write(final Writer out, final String from, final String to,
+                             final List<String> a, final List<String> b, final int context) throws IOException {
+        final List<Edit> edits = edits(a, b);
+
+        boolean header = false;
+        int i = 0;
+        while (i < edits.size()) {
+            if (edits.get(i).kind == ' ') {
+                i++;
+                continue;
+            }
+
+            // Extend the hunk while the next change is close enough to share context
+            final int start = Math.max(0, i - context);
+            int end = i;
+            int last = i;
+            while (end < edits.size()) {
+                if (edits.get(end).kind != ' ') {
+                    last = end;
+                } else if (end - last > 2 * context) {
+                    break;
+                }
+                end++;
+            }
+            end = Math.min(edits.size(), last + context + 1);
+
+            if (!header) {
+                out.write("--- " + from + "\n");
+                out.write("+++ " + to + "\n");
+                header = true;
+            }
+            hunk(out, edits.subList(start, end));
+            i = end;
+        }
+    }
+
+    private static void hunk(final Writer out, final List<Edit> edits) throws IOException {
+        final Edit first = edits.get(0);
+        int removed = 0;
+        int added = 0;
+        for (final Edit edit : edits) {
+            if (edit.kind != '+') removed++;
+            if (edit.kind != '-') added++;
+        }
+
+        out.write("@@ -" + range(first.a, removed) + " +" + range(first.b, added) + " @@\n");
+        for (final Edit edit : edits) {
+            out.write(edit.kind);
+            out.write(edit.line);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * An empty range names the line before it, as diff does
+     */
+    private static String range(final int index, final int length) {
+        final int start = length == 0 ? index : index + 1;
+        return length == 1 ? String.valueOf(start) : start + "," + length;
+    }
+
+    /**
+     * @return the lines of the text without their line terminators
+     */
+    public static List<String> lines(final String text) {
+        if (text == null || text.isEmpty()) return Collections.emptyList();
+        final List<String> lines = new ArrayList<>(Arrays.asList(text.split("\r?\n", -1)));
+        if (lines.get(lines.size() - 1).isEmpty()) lines.remove(lines.size() - 1);
+        return lines;
+    }
+
+    static List<Edit> edits(final List<String> a, final List<String> b) {
+        int head = 0;
+        while (head < a.size() && head < b.size() && a.get(head).equals(b.get(head))) {
+            head++;
+        }
+
+        int tail = 0;
+        while (tail < a.size() - head && tail < b.size() - head
+                && a.get(a.size() - 1 - tail).equals(b.get(b.size() - 1 - tail))) {
+            tail++;
+        }
+
+        final List<Edit> edits = new ArrayList<>(a.size() + b.size() - head - tail);
+        for (int i = 0; i < head; i++) {
+            edits.add(new Edit(' ', a.get(i), i, i));
+        }
+
+        myers(a.subList(head, a.size() - tail), b.subList(head, b.size() - tail), head, edits);
+
+        for (int i = tail; i > 0; i--) {
+            edits.add(new Edit(' ', a.get(a.size() - i), a.size() - i, b.size() - i));
+        }
+        return edits;
+    }
+
+    /**
+     * Finds the shortest edit script keeping, for every number of edits d,
+     * how far along each diagonal k = x - y the search got.  The script is
+     * then read backwards from the kept snapshots.
+     */
+    private static void myers(final List<String> a, final List<String> b, final int offset, final List<Edit> edits) {
+        final int n = a.size();
+        final int m = b.size();
+        final int max = n + m;
+
+        if (max == 0) return;
+
+        final int[] v = new int[2 * max + 3];
+        final int zero = max + 1;
+        final List<int[]> trace = new ArrayList<>();
+
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            // Only diagonals -d to d can be reached with d edits
+            trace.add(Arrays.copyOfRange(v, zero - d, zero + d + 1));
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[zero + k - 1] < v[zero + k + 1])) {
+                    x = v[zero + k + 1];
+                } else {
+                    x = v[zero + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[zero + k] = x;
+
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+
+        final List<Edit> script = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            final int[] previous = trace.get(d);
+            final int k = x - y;
+
+            final int prevK;
+            if (k == -d || (k != d && previous[d + k - 1] < previous[d + k + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            final int prevX = previous[d + prevK];
+            final int prevY = prevX - prevK;
+
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                script.add(new Edit(' ', a.get(x), offset + x, offset + y));
+            }
+
+            if (prevK == k + 1) {
+                y--;
+                script.add(new Edit('+', b.get(y), offset + x, offset + y));
+            } else {
+                x--;
+                script.add(new Edit('-', a.get(x), offset + x, offset + y));
+            }
+        }
+
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            script.add(new Edit(' ', a.get(x), offset + x, offset + y));
+        }
+
+        Collections.reverse(script);
+        edits.addAll(script);
+    }
+
+    static class Edit {
+        private final char kind;
+        private final String line;
+        private final int a;
+        private final int b;
+
+        /**
+         * @param kind ' ' for a kept line, '-' for a removed and '+' for an added one
+         * @param a the index of the line in the old text, or where it would be
+         * @param b the index of the line in the new text, or where it would be
+         */
+        Edit(final char kind, final String line, final int a, final int b) {
+            this.kind = kind;
+            this.line = line;
+            this.a = a;
+            this.b = b;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the asmified output of a directory of classes, such as
+ * target/classes, up to date while the classes are compiled again.
+ *
+ * Every directory of the tree is registered with a {@link WatchService},
+ * new ones as they appear.  A compiler writes its classes in a burst of
+ * events, so once an event arrives the watcher waits until none came for
+ * the debounce delay and then converts only the class files named by the
+ * events and deletes the output of those removed.  The tree is only
+ * scanned when starting and when the events overflowed, and then only
+ * classes newer than their output are converted.
+ */
+public class Watcher implements Closeable {
+
+    private final Path root;
+    private final DirectoryOutput output;
+    private final Selector selector;
+    private final int threads;
+    private final long debounce;
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    /**
+     * @param root the directory of classes to watch
+     * @param dest the directory the output mirrors the tree into
+     * @param threads the number of threads converting a burst of classes, zero for one per available core
+     * @param debounce how many milliseconds without events end a burst
+     */
+    public Watcher(final File root, final File dest, final Selector selector, final int threads, final long debounce) throws IOException {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.output = new DirectoryOutput(dest);
+        this.selector = selector;
+        this.threads = threads;
+        this.debounce = debounce;
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Registers every directory of the tree, converts the classes whose
+     * output is missing or older and removes the output of classes that
+     * no longer exist
+     */
+    public Changes scan() throws IOException {
+        final long start = System.nanoTime();
+        final List<String> stale = new ArrayList<>();
+        register(root, stale, true);
+
+        final Path dest = output.directory().toPath();
+        final List<String> removed = new ArrayList<>();
+        if (Files.isDirectory(dest)) {
+            Files.walkFileTree(dest, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    final String path = relative(dest, file);
+                    if (!path.endsWith(".class.asm")) return FileVisitResult.CONTINUE;
+
+                    final String clazz = path.substring(0, path.length() - 4);
+                    if (!Files.isRegularFile(root.resolve(clazz)) || !selector.accept(clazz)) removed.add(clazz);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return apply(stale, removed, start);
+    }
+
+    /**
+     * Blocks until the next burst of changes and applies it
+     */
+    public Changes poll() throws IOException, InterruptedException {
+        WatchKey key = service.take();
+        final long start = System.nanoTime();
+
+        final Set<String> changed = new TreeSet<>();
+        boolean overflow = false;
+        while (key != null) {
+            overflow |= drain(key, changed);
+            key = service.poll(debounce, TimeUnit.MILLISECONDS);
+        }
+
+        if (overflow) return scan();
+
+        final List<String> classes = new ArrayList<>();
+        // A removed directory also names its classes, each is only removed once
+        final Set<String> removed = new TreeSet<>();
+        for (final String path : changed) {
+            final Path file = root.resolve(path);
+            if (Files.isRegularFile(file)) {
+                if (Is.Clazz.accept(path) && selector.accept(path)) classes.add(path);
+            } else if (Files.notExists(file)) {
+                removed(path, removed);
+            }
+        }
+
+        return apply(classes, removed, start);
+    }
+
+    /**
+     * @return true if events were lost and the tree must be scanned
+     */
+    private boolean drain(final WatchKey key, final Set<String> changed) throws IOException {
+        final Path dir = keys.get(key);
+        boolean overflow = dir == null;
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+
+            final Path file = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                // Classes written before the directory was registered have no events of their own
+                final List<String> classes = new ArrayList<>();
+                register(file, classes, false);
+                changed.addAll(classes);
+            } else {
+                changed.add(relative(root, file));
+            }
+        }
+
+        if (!key.reset()) keys.remove(key);
+        return overflow;
+    }
+
+    /**
+     * Registers the directory and those under it, collecting their class files
+     *
+     * @param stale only collect the classes whose output is missing or older
+     */
+    private void register(final Path start, final List<String> classes, final boolean stale) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                final WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                final String path = relative(root, file);
+                if (!attrs.isRegularFile() || !Is.Clazz.accept(path) || !selector.accept(path)) return FileVisitResult.CONTINUE;
+
+                final File asm = new File(output.directory(), path + ".asm");
+                if (!stale || asm.lastModified() < attrs.lastModifiedTime().toMillis()) classes.add(path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // Deleted while walking, its event follows
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Collects the classes whose output is to be removed, all of those under
+     * the path when it was a directory
+     */
+    private void removed(final String path, final Set<String> removed) throws IOException {
+        if (Is.Clazz.accept(path)) {
+            if (output.exists(path + ".asm")) removed.add(path);
+            return;
+        }
+
+        final Path dir = output.directory().toPath().resolve(path);
+        if (!Files.isDirectory(dir)) return;
+
+        final Path dest = output.directory().toPath();
+        try (final Stream<Path> files = Files.walk(dir)) {
+            files.map(file -> relative(dest, file))
+                    .filter(file -> file.endsWith(".class.asm"))
+                    .forEach(file -> removed.add(file.substring(0, file.length() - 4)));
+        }
+    }
+
+    private Changes apply(final List<String> classes, final Collection<String> removed, final long start) throws IOException {
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        if (!classes.isEmpty()) {
+            // A class that fails to convert, for example one still being written, must not stop the others
+            try (final Workers workers = new Workers(Math.min(Workers.threads(threads), classes.size()))) {
+                for (final String path : classes) {
+                    workers.submit(() -> {
+                        try {
+                            final byte[] bytes = Files.readAllBytes(root.resolve(path));
+                            output.entry(path + ".asm").asmify(bytes, selector, null, null);
+                        } catch (final IOException | RuntimeException e) {
+                            errors.add(path + ": " + e);
+                        }
+                    });
+                }
+                workers.await();
+            }
+        }
+
+        for (final String path : removed) {
+            output.delete(path + ".asm");
+        }
+
+        Collections.sort(errors);
+        return new Changes(classes.size() - errors.size(), removed.size(), errors, System.nanoTime() - start);
+    }
+
+    private static String relative(final Path parent, final Path file) {
+        return parent.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    /**
+     * What a scan or a burst of events changed in the output
+     */
+    public static class Changes {
+        private final int converted;
+        private final int removed;
+        private final List<String> errors;
+        private final long nanos;
+
+        Changes(final int converted, final int removed, final List<String> errors, final long nanos) {
+            this.converted = converted;
+            this.removed = removed;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+
+        public int getConverted() {
+            return converted;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the classes that could not be converted, each with the reason
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Asmified %d %s, removed %d in %d ms", converted, converted == 1 ? "class" : "classes",
+                    removed, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+}
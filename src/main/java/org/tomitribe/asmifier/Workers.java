@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fixed pool of threads with a bounded number of tasks in flight.
+ *
+ * The thread submitting work blocks once the pool is saturated, so
+ * a fast reader can never queue up more class bytes than the workers
+ * are able to consume.  With a single thread all tasks run inline on
+ * the calling thread, exactly as a sequential run would.
+ *
+ * The first failure of any task is rethrown from the next call to
+ * {@link #submit(Task)} or {@link #await()}.
+ */
+public class Workers implements Closeable {
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int capacity;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public Workers(final int threads) {
+        final int size = threads(threads);
+
+        if (size == 1) {
+            this.executor = null;
+            this.capacity = 1;
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(size, runnable -> {
+                final Thread thread = new Thread(runnable, "asmify-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.capacity = size * 2;
+        }
+
+        this.inFlight = new Semaphore(capacity);
+    }
+
+    /**
+     * @param threads requested number of threads, zero or less meaning one per available core
+     */
+    public static int threads(final int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void submit(final Task task) throws IOException {
+        check();
+
+        if (executor == null) {
+            task.run();
+            return;
+        }
+
+        acquire(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    if (failure.get() == null) task.run();
+                } catch (final Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            inFlight.release();
+            throw new IOException("Worker pool is closed", e);
+        }
+    }
+
+    /**
+     * Blocks until every submitted task has completed
+     */
+    public void await() throws IOException {
+        acquire(capacity);
+        inFlight.release(capacity);
+        check();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) executor.shutdown();
+    }
+
+    private void acquire(final int permits) throws IOException {
+        try {
+            inFlight.acquire(permits);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for workers");
+        }
+    }
+
+    private void check() throws IOException {
+        final Throwable t = failure.get();
+        if (t == null) return;
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new IOException(t);
+    }
+
+    public interface Task {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,881 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Walks a zip archive and writes the asmified contents to an {@link Output}.
+ *
+ * Archives on disk are read through their {@link CentralDirectory}, so
+ * the workers inflate the entries themselves.  Nested archives are first
+ * buffered in memory, or spooled to a temporary file once the memory
+ * budget is used up, and are then read the same way.  Only archives that
+ * cannot be read through a central directory, such as stdin, are walked
+ * as a stream where the calling thread inflates the entries.
+ *
+ * Every entry is reserved in the output on the reading thread, so the
+ * result does not depend on the order in which the workers finish.
+ */
+public class ZipProcessor {
+
+    private static final long MAX_BUFFER = Integer.MAX_VALUE - 8;
+
+    /**
+     * Resources larger than this are streamed to the output through a fixed
+     * buffer, smaller ones are read whole and written by the workers
+     */
+    private static final long STREAMED = 1024 * 1024;
+
+    /**
+     * The magic number and version of a jmod file
+     */
+    private static final byte[] JMOD = {'J', 'M', 1, 0};
+
+    private static final Is.Scannable SCANNABLE = new Is.Scannable();
+
+    private final Workers workers;
+    private final AtomicLong memory = new AtomicLong(128 * 1024 * 1024);
+    private boolean incremental;
+    private Cache cache;
+    private Filter entries = Filter.ALL;
+    private Filter nested = Filter.ALL;
+    private Selector selector = Selector.ALL;
+    private Stats stats;
+    private boolean indexed;
+    private boolean resume;
+    private boolean spooling = true;
+
+    private Output output;
+    private Index index;
+    private Manifest previous;
+    private Manifest current;
+    private Journal journal;
+    private boolean finished;
+
+    public ZipProcessor(final Workers workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @param bytes how much memory nested archives may occupy at once
+     * before further nested archives are spooled to temporary files
+     */
+    public ZipProcessor nestedMemory(final long bytes) {
+        memory.set(bytes);
+        return this;
+    }
+
+    /**
+     * Spool the nested archives that do not fit the memory budget to
+     * temporary files.  When false they are walked as a stream instead,
+     * where the reading thread inflates their entries, so nothing is
+     * written to disk but the output.
+     */
+    public ZipProcessor spool(final boolean spool) {
+        this.spooling = spool;
+        return this;
+    }
+
+    /**
+     * Skip entries whose CRC-32 and size match the {@link Manifest} left in
+     * the destination by the previous run and remove the outputs of entries
+     * that no longer exist.  Only applies to output written to a directory.
+     */
+    public ZipProcessor incremental(final boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Take the output of classes converted before, in this run or an earlier one, from the cache
+     */
+    public ZipProcessor cache(final Cache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Only convert the class and resource entries accepted by the filter
+     */
+    public ZipProcessor entries(final Filter entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    /**
+     * Only descend into the nested archives accepted by the filter
+     */
+    public ZipProcessor nested(final Filter nested) {
+        this.nested = nested;
+        return this;
+    }
+
+    /**
+     * Only convert the selected classes and only their selected fields and methods,
+     * read with the parsing options of the selector.  Use the same selector for any cache.
+     */
+    public ZipProcessor selector(final Selector selector) {
+        this.selector = selector;
+        return this;
+    }
+
+    /**
+     * Record counts and per-phase timings of the run
+     */
+    public ZipProcessor stats(final Stats stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * Write an {@link Index} of the converted classes into the output as {@value Index#NAME}
+     */
+    public ZipProcessor index(final boolean index) {
+        this.indexed = index;
+        return this;
+    }
+
+    /**
+     * Skip the entries the {@link Journal} in the destination records as
+     * completed by an interrupted run.  Only applies to output written to a directory.
+     */
+    public ZipProcessor resume(final boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public void process(final File zip, final File dest) throws IOException {
+        process(zip, new DirectoryOutput(dest));
+    }
+
+    public void process(final InputStream in, final File dest) throws IOException {
+        process(in, new DirectoryOutput(dest));
+    }
+
+    /**
+     * Converts the archive into the output, which is left open
+     */
+    public void process(final File zip, final Output output) throws IOException {
+        final CentralDirectory directory;
+        try {
+            directory = CentralDirectory.open(zip);
+        } catch (final ZipException e) {
+            try (final InputStream in = IO.read(zip)) {
+                process(in, output);
+            }
+            return;
+        }
+
+        start(output, incremental, true);
+        try {
+            processDirectory(new Handle(directory, 0), "");
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    public void process(final InputStream in, final Output output) throws IOException {
+        start(output, incremental, true);
+        try {
+            processZip(in, "");
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Converts every class and archive found under the directory into the
+     * output, which is left open.  Other files are ignored.
+     *
+     * The tree is walked on the calling thread while the workers read and
+     * convert the files already found, so the walk overlaps with the
+     * conversion.  Incremental runs only apply to single archives.
+     */
+    public void processTree(final File root, final Output output) throws IOException {
+        start(output, false, false);
+        try {
+            walk(root, "");
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Converts the classes and resources of the modules of a runtime image
+     * into the output, which is left open.  Each module is a folder of the
+     * output and the entry filters match the paths within the module.
+     *
+     * @param root the directory holding a folder per module, see {@link RuntimeImage#root()}
+     * @param modules the modules to convert in that order
+     */
+    public void processModules(final Path root, final List<String> modules, final Output output) throws IOException {
+        start(output, false, false);
+        try {
+            for (final String module : modules) {
+                walk(root.resolve(module), module + "/", "");
+            }
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * @param journaled keep a {@link Journal} of the completed entries when writing to a directory
+     */
+    private void start(final Output output, final boolean incremental, final boolean journaled) throws IOException {
+        final File dir = output.directory();
+        final String settings = indexed ? selector + " index" : selector.toString();
+        this.output = output;
+        this.index = indexed ? new Index(settings) : null;
+        this.previous = incremental && dir != null ? Manifest.read(dir, settings) : null;
+        this.current = incremental && dir != null ? new Manifest(settings) : null;
+
+        // Without the previous index the unchanged classes would be missing from the new one
+        if (previous != null && index != null && !index.load(dir)) previous.invalidate();
+
+        this.journal = journaled && dir != null ? new Journal(dir, settings, resume) : null;
+        this.finished = false;
+    }
+
+    private void finish() throws IOException {
+        workers.await();
+
+        if (current != null) {
+            for (final String path : previous.removed(current)) {
+                if (path.endsWith(".class")) {
+                    output.delete(path + ".asm");
+                    if (index != null) index.remove(path);
+                } else if (!Is.Zip.accept(path)) {
+                    output.delete(path);
+                }
+            }
+        }
+
+        if (index != null) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            index.write(bytes);
+            output.entry(Index.NAME).copy(bytes.toByteArray());
+        }
+
+        if (current != null) current.write(output.directory());
+
+        if (journal != null) {
+            journal.delete();
+            journal = null;
+        }
+
+        finished = true;
+    }
+
+    /**
+     * Aborts the output of a failed run, so it is never taken for complete,
+     * and leaves its journal in place for it to be resumed
+     */
+    private void stop() throws IOException {
+        if (!finished) output.abort();
+
+        if (journal == null) return;
+        journal.close();
+        journal = null;
+    }
+
+    /**
+     * Checked against the name alone, so a rejected entry is never inflated
+     * and a rejected nested archive never opened
+     */
+    private boolean accept(final String path) {
+        if (Is.Zip.accept(path)) return nested.accept(path);
+        if (path.endsWith(".class") && !selector.accept(path)) return false;
+        return entries.accept(path);
+    }
+
+    /**
+     * Records the entry in the manifest and tells whether the output of the
+     * previous run can be kept as it is
+     */
+    private boolean unchanged(final String key, final long crc, final long size, final String path) {
+        if (current == null) return false;
+        current.add(key, crc, size);
+        return previous.matches(key, crc, size) && output.exists(path);
+    }
+
+    /**
+     * Tells whether the interrupted run this one resumes completed the entry
+     */
+    private boolean resumed(final String key, final long crc, final long size, final String path) {
+        return journal != null && journal.completed(key, crc, size) && output.exists(path);
+    }
+
+    /**
+     * Lists the archive on the calling thread and leaves the reading of
+     * each entry to the workers.  The directory is closed once the last
+     * of them is done.
+     */
+    private void processDirectory(final Handle handle, final String prefix) throws IOException {
+        final CentralDirectory directory = handle.directory;
+        try {
+            for (final CentralDirectory.Entry entry : directory.entries()) {
+                final String path = entry.getName();
+                final String key = prefix + path;
+
+                if (entry.isDirectory() || !accept(path)) {
+
+                    continue;
+
+                } else if (path.endsWith(".class")) {
+
+                    if (unchanged(key, entry.getCrc(), entry.getSize(), key + ".asm")) continue;
+
+                    if (resumed(key, entry.getCrc(), entry.getSize(), key + ".asm")) {
+                        if (index != null) submit(handle, index(key, () -> directory.read(entry)));
+                        continue;
+                    }
+
+                    count(prefix, true, entry.getSize(), entry.getCompressedSize());
+
+                    final Output.Entry asm = output.entry(key + ".asm");
+                    submit(handle, asmify(key, entry.getCrc(), entry.getSize(), asm, () -> directory.read(entry)));
+
+                } else if (Is.Zip.accept(path)) {
+
+                    if (unchanged(key, entry.getCrc(), entry.getSize(), key)) {
+                        current.addAll(previous, key);
+                        continue;
+                    }
+
+                    try (final InputStream in = directory.open(entry)) {
+                        processNested(in, entry.getSize(), key + "/");
+                    }
+
+                } else if (entry.getSize() > 0) {
+
+                    if (unchanged(key, entry.getCrc(), entry.getSize(), key)) continue;
+                    if (resumed(key, entry.getCrc(), entry.getSize(), key)) continue;
+
+                    count(prefix, false, entry.getSize(), entry.getCompressedSize());
+
+                    final Output.Entry resource = output.entry(key);
+                    if (entry.getSize() > STREAMED) {
+                        submit(handle, copy(key, directory, entry, resource));
+                    } else {
+                        submit(handle, copy(key, entry.getCrc(), entry.getSize(), resource, () -> directory.read(entry)));
+                    }
+                }
+            }
+        } finally {
+            handle.release();
+        }
+    }
+
+    /**
+     * Lists the directory in name order, so the output does not depend on
+     * the order of the file system, and hands each file found to the workers
+     */
+    private void walk(final File dir, final String prefix) throws IOException {
+        final File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+
+        for (final File file : files) {
+            final String path = prefix + file.getName();
+
+            if (file.isDirectory()) {
+
+                // Links to directories could lead us in circles
+                if (!Files.isSymbolicLink(file.toPath())) walk(file, path + "/");
+
+            } else if (!SCANNABLE.accept(file) || !accept(path)) {
+
+                continue;
+
+            } else if (Is.Clazz.accept(path)) {
+
+                count("", true, file.length(), file.length());
+
+                final Output.Entry asm = output.entry(path + ".asm");
+                submit(asmify(path, -1, -1, asm, () -> Files.readAllBytes(file.toPath())));
+
+            } else {
+
+                final CentralDirectory directory;
+                try {
+                    directory = CentralDirectory.open(file);
+                } catch (final ZipException e) {
+                    try (final InputStream in = IO.read(file)) {
+                        processZip(in, path + "/");
+                    }
+                    continue;
+                }
+
+                processDirectory(new Handle(directory, 0), path + "/");
+            }
+        }
+    }
+
+    /**
+     * Lists the module directory in name order and hands each class and
+     * resource found to the workers
+     *
+     * @param prefix the path of the module in the output followed by a slash
+     * @param path the path of the directory within the module, empty or followed by a slash
+     */
+    private void walk(final Path dir, final String prefix, final String path) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(file -> file.getFileName().toString()));
+
+        for (final Path file : files) {
+            final String name = path + file.getFileName();
+            final String key = prefix + name;
+
+            if (Files.isDirectory(file)) {
+
+                walk(file, prefix, name + "/");
+
+            } else if (!accept(name)) {
+
+                continue;
+
+            } else if (Is.Clazz.accept(name)) {
+
+                final long size = Files.size(file);
+                count(prefix, true, size, size);
+
+                final Output.Entry asm = output.entry(key + ".asm");
+                submit(asmify(key, -1, -1, asm, () -> Files.readAllBytes(file)));
+
+            } else {
+
+                final long size = Files.size(file);
+                if (size == 0) continue;
+
+                count(prefix, false, size, size);
+
+                final Output.Entry resource = output.entry(key);
+                submit(copy(key, -1, -1, resource, () -> Files.readAllBytes(file)));
+            }
+        }
+    }
+
+    private void processZip(final InputStream in, final String prefix) throws IOException {
+        final ZipInputStream zipInputStream = new ZipInputStream(jmod(in));
+
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            final String path = entry.getName();
+            final String key = prefix + path;
+
+            if (!accept(path)) {
+
+                continue;
+
+            } else if (path.endsWith(".class")) {
+
+                final byte[] bytes = read(zipInputStream);
+
+                // The CRC of a streamed entry is only known once it has been read
+                final long crc = crc(entry, bytes);
+                if (unchanged(key, crc, bytes.length, key + ".asm")) continue;
+
+                if (resumed(key, crc, bytes.length, key + ".asm")) {
+                    if (index != null) submit(index(key, () -> bytes));
+                    continue;
+                }
+
+                count(prefix, true, bytes.length, entry.getCompressedSize());
+
+                final Output.Entry asm = output.entry(key + ".asm");
+                submit(asmify(key, crc, bytes.length, asm, () -> bytes));
+
+            } else if (Is.Zip.accept(path)) {
+
+                processNested(zipInputStream, entry.getSize(), key + "/");
+
+                if (current != null) current.add(key, entry.getCrc(), entry.getSize());
+
+            } else if (streamed(entry)) {
+
+                stream(zipInputStream, entry, key, prefix);
+
+            } else {
+                // is a resource file
+
+                final byte[] bytes = read(zipInputStream);
+                if (bytes.length > 0) {
+                    final long crc = crc(entry, bytes);
+                    if (unchanged(key, crc, bytes.length, key)) continue;
+                    if (resumed(key, crc, bytes.length, key)) continue;
+
+                    count(prefix, false, bytes.length, entry.getCompressedSize());
+
+                    final Output.Entry resource = output.entry(key);
+                    submit(copy(key, crc, bytes.length, resource, () -> bytes));
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips the header a jmod file has before its zip data, which would
+     * otherwise end the stream before its first entry.  Reading through
+     * the central directory needs no such care.
+     */
+    private static InputStream jmod(final InputStream in) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, JMOD.length);
+        final byte[] header = new byte[JMOD.length];
+
+        int length = 0;
+        while (length < header.length) {
+            final int read = pushback.read(header, length, header.length - length);
+            if (read < 0) break;
+            length += read;
+        }
+
+        if (length != header.length || !Arrays.equals(header, JMOD)) pushback.unread(header, 0, length);
+        return pushback;
+    }
+
+    /**
+     * Large resources and those of unknown size are streamed, unless the
+     * CRC-32 they are matched on is only known once they have been read
+     */
+    private boolean streamed(final ZipEntry entry) {
+        if (entry.getSize() >= 0) return entry.getSize() > STREAMED;
+        return current == null && !resume;
+    }
+
+    /**
+     * Copies the resource to the output on the calling thread as it is inflated
+     */
+    private void stream(final ZipInputStream zipInputStream, final ZipEntry entry, final String key, final String prefix) throws IOException {
+        // An empty resource is skipped, which must be known before its entry is reserved
+        final PushbackInputStream in = new PushbackInputStream(zipInputStream, 1);
+        final int first = in.read();
+        if (first < 0) return;
+        in.unread(first);
+
+        if (unchanged(key, entry.getCrc(), entry.getSize(), key)) return;
+        if (resumed(key, entry.getCrc(), entry.getSize(), key)) return;
+
+        final long start = System.nanoTime();
+        output.entry(key).copy(in, entry.getCrc(), entry.getSize());
+
+        // Those of an entry followed by a data descriptor are only known once it is read
+        count(prefix, false, entry.getSize(), entry.getCompressedSize());
+        if (journal != null) journal.add(key, entry.getCrc(), entry.getSize());
+        if (stats != null) stats.add(Stats.Phase.WRITE, System.nanoTime() - start);
+    }
+
+    /**
+     * Buffers the nested archive within the memory budget, spilling to
+     * a temporary file when it does not fit, so it can be read through
+     * its central directory like any archive on disk.
+     *
+     * @param size the size of the nested archive or -1 if not known
+     */
+    private void processNested(final InputStream in, final long size, final String prefix) throws IOException {
+        final long start = System.nanoTime();
+        final int capacity = size >= 0 && size < MAX_BUFFER ? (int) size : 8192;
+        if (!reserve(capacity)) {
+            spool(new byte[0], 0, in, prefix);
+            return;
+        }
+
+        long reserved = capacity;
+        byte[] bytes = new byte[capacity];
+        int length = 0;
+
+        try {
+            while (true) {
+                if (length < bytes.length) {
+                    final int read = in.read(bytes, length, bytes.length - length);
+                    if (read < 0) break;
+                    length += read;
+                    continue;
+                }
+
+                final int next = in.read();
+                if (next < 0) break;
+
+                // The size was not known up front or the entry is larger than recorded
+                final int grow = Math.max(8192, bytes.length);
+                if (bytes.length + (long) grow > MAX_BUFFER || !reserve(grow)) {
+                    memory.addAndGet(reserved);
+                    reserved = 0;
+                    final InputStream rest = new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) next}), in);
+                    inflated(start);
+                    spool(bytes, length, rest, prefix);
+                    return;
+                }
+                reserved += grow;
+                bytes = Arrays.copyOf(bytes, bytes.length + grow);
+                bytes[length++] = (byte) next;
+            }
+        } catch (final IOException | RuntimeException e) {
+            memory.addAndGet(reserved);
+            throw e;
+        }
+
+        inflated(start);
+
+        final CentralDirectory directory;
+        try {
+            directory = CentralDirectory.open(bytes, length);
+        } catch (final ZipException e) {
+            memory.addAndGet(reserved);
+            processZip(new ByteArrayInputStream(bytes, 0, length), prefix);
+            return;
+        }
+
+        processDirectory(new Handle(directory, reserved), prefix);
+    }
+
+    private void spool(final byte[] head, final int length, final InputStream in, final String prefix) throws IOException {
+        if (!spooling) {
+            processZip(new SequenceInputStream(new ByteArrayInputStream(head, 0, length), in), prefix);
+            return;
+        }
+
+        final File tmp = Files.createTempFile("asmify", ".zip").toFile();
+        try {
+            final long start = System.nanoTime();
+            try (final OutputStream out = IO.write(tmp)) {
+                out.write(head, 0, length);
+                IO.copy(in, out);
+            }
+            inflated(start);
+
+            final CentralDirectory directory;
+            try {
+                directory = CentralDirectory.open(tmp, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (final ZipException e) {
+                try (final InputStream spooled = IO.read(tmp)) {
+                    processZip(spooled, prefix);
+                }
+                Files.deleteIfExists(tmp.toPath());
+                return;
+            }
+
+            processDirectory(new Handle(directory, 0), prefix);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the class bytes and converts them, timing both when stats are kept
+     *
+     * @param crc the CRC-32 recorded in the journal once the output is written, -1 if there is none
+     */
+    private Workers.Task asmify(final String key, final long crc, final long size, final Output.Entry asm, final Bytes bytes) {
+        final Journal journal = this.journal;
+        return () -> {
+            final long start = System.nanoTime();
+            final byte[] read = bytes.get();
+            final long inflated = System.nanoTime();
+
+            if (index == null) {
+                asm.asmify(read, selector, cache, stats);
+            } else {
+                final Index.Tee tee = index.tee(key);
+                asm.asmify(read, selector.tee(tee), cache, stats);
+
+                // Output taken from the cache was never parsed
+                if (!tee.isIndexed()) index.add(key, read, selector);
+            }
+            if (journal != null) journal.add(key, crc, size);
+
+            if (stats != null) {
+                stats.add(Stats.Phase.INFLATE, inflated - start);
+                stats.clazz(key, read.length, System.nanoTime() - inflated);
+            }
+        };
+    }
+
+    private Workers.Task copy(final String key, final long crc, final long size, final Output.Entry resource, final Bytes bytes) {
+        final Journal journal = this.journal;
+        return () -> {
+            final long start = System.nanoTime();
+            final byte[] read = bytes.get();
+            final long inflated = System.nanoTime();
+
+            resource.copy(read);
+            if (journal != null) journal.add(key, crc, size);
+
+            if (stats != null) {
+                stats.add(Stats.Phase.INFLATE, inflated - start);
+                stats.add(Stats.Phase.WRITE, System.nanoTime() - inflated);
+            }
+        };
+    }
+
+    /**
+     * Streams the resource from the archive to the output, so only a fixed
+     * buffer of it is ever held in memory
+     */
+    private Workers.Task copy(final String key, final CentralDirectory directory, final CentralDirectory.Entry entry, final Output.Entry resource) {
+        final Journal journal = this.journal;
+        return () -> {
+            final long start = System.nanoTime();
+
+            resource.copy(directory, entry);
+            if (journal != null) journal.add(key, entry.getCrc(), entry.getSize());
+
+            if (stats != null) stats.add(Stats.Phase.WRITE, System.nanoTime() - start);
+        };
+    }
+
+    /**
+     * Reads a class converted by the interrupted run, only to add it to the index
+     */
+    private Workers.Task index(final String key, final Bytes bytes) {
+        return () -> {
+            final long start = System.nanoTime();
+            final byte[] read = bytes.get();
+            inflated(start);
+            index.add(key, read, selector);
+        };
+    }
+
+    private byte[] read(final InputStream in) throws IOException {
+        final long start = System.nanoTime();
+        final byte[] bytes = IO.readBytes(in);
+        inflated(start);
+        return bytes;
+    }
+
+    private void inflated(final long start) {
+        if (stats != null) stats.add(Stats.Phase.INFLATE, System.nanoTime() - start);
+    }
+
+    /**
+     * @param prefix the path of the archive holding the entry followed by a slash, empty for the top archive
+     */
+    private void count(final String prefix, final boolean clazz, final long size, final long compressedSize) {
+        if (stats == null) return;
+        final String archive = prefix.isEmpty() ? prefix : prefix.substring(0, prefix.length() - 1);
+        stats.entry(archive, clazz, size, compressedSize);
+    }
+
+    private static long crc(final ZipEntry entry, final byte[] bytes) {
+        if (entry.getCrc() != -1) return entry.getCrc();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private boolean reserve(final long bytes) {
+        while (true) {
+            final long available = memory.get();
+            if (available < bytes) return false;
+            if (memory.compareAndSet(available, available - bytes)) return true;
+        }
+    }
+
+    private void submit(final Handle handle, final Workers.Task task) throws IOException {
+        handle.retain();
+        try {
+            submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    handle.release();
+                }
+            });
+        } catch (final IOException | RuntimeException e) {
+            handle.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A failed task aborts the output, releasing any worker waiting for
+     * the entry that task would have written
+     */
+    private void submit(final Workers.Task task) throws IOException {
+        workers.submit(() -> {
+            try {
+                task.run();
+            } catch (final IOException | RuntimeException | Error e) {
+                output.abort();
+                throw e;
+            }
+        });
+    }
+
+    private interface Bytes {
+        byte[] get() throws IOException;
+    }
+
+    /**
+     * Keeps a directory open while the workers still read from it and
+     * returns its memory to the budget once the last of them is done
+     */
+    private class Handle implements Closeable {
+        private final CentralDirectory directory;
+        private final long reserved;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Handle(final CentralDirectory directory, final long reserved) {
+            this.directory = directory;
+            this.reserved = reserved;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() throws IOException {
+            if (references.decrementAndGet() == 0) close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            memory.addAndGet(reserved);
+            directory.close();
+        }
+    }
+}
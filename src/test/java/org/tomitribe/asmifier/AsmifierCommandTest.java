@@ -20,14 +20,39 @@ import org.tomitribe.util.Archive;
 import org.tomitribe.util.Files;
 import org.tomitribe.util.IO;
 import org.tomitribe.util.Join;
+import org.tomitribe.util.Size;
 
+import java.awt.datatransfer.DataFlavor;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AsmifierCommandTest {
 
@@ -148,6 +173,814 @@ public class AsmifierCommandTest {
                 "}\n", IO.slurp(new File(dest, "/widget.zip/one.jar/org/tomitribe/crest/api/Command.class.asm")));
     }
 
+    @Test
+    public void testZipThreads() throws Exception {
+        final Archive one = Archive.archive()
+                .add(URI.class)
+                .add(IO.class)
+                .add("META-INF/orange.txt", "Orange is rare and beautiful");
+
+        final Archive two = Archive.archive()
+                .add("one.jar", one)
+                .add(Editor.class)
+                .add(Objects.class)
+                .add(Archive.class)
+                .add(Files.class);
+
+        final File jar = two.toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final File sequential = Files.tmpdir();
+        final File parallel = Files.tmpdir();
+        final File spooled = Files.tmpdir();
+
+        try (final Workers workers = new Workers(1)) {
+            new ZipProcessor(workers).process(jar, sequential);
+        }
+        try (final Workers workers = new Workers(4)) {
+            new ZipProcessor(workers).process(jar, parallel);
+        }
+        try (final Workers workers = new Workers(4)) {
+            new ZipProcessor(workers).nestedMemory(0).process(jar, spooled);
+        }
+
+        assertEquals(contents(sequential), contents(parallel));
+        assertEquals(contents(sequential), contents(spooled));
+    }
+
+    @Test
+    public void testZipIncremental() throws Exception {
+        final File src = Files.tmpdir();
+        final File dest = Files.tmpdir();
+        final File jar = Archive.archive()
+                .add("one.jar", Archive.archive().add(URI.class).add("META-INF/orange.txt", "Orange"))
+                .add(Editor.class)
+                .add(Objects.class)
+                .add("green.txt", "Green")
+                .toJar(new File(src, "widget.zip"));
+
+        incremental(jar, dest);
+
+        final File objects = new File(dest, "widget.zip/java/util/Objects.class.asm");
+        final File editor = new File(dest, "widget.zip/org/tomitribe/crest/api/Editor.class.asm");
+        final File orange = new File(dest, "widget.zip/one.jar/META-INF/orange.txt");
+        assertTrue(new File(dest, "widget.zip/" + Manifest.NAME).isFile());
+
+        // Mark the outputs, unchanged entries must not be written again
+        IO.copy(IO.read("kept"), objects);
+        IO.copy(IO.read("kept"), orange);
+
+        Archive.archive()
+                .add("one.jar", Archive.archive().add(URI.class).add("META-INF/orange.txt", "Orange"))
+                .add(Objects.class)
+                .add("green.txt", "Still green")
+                .toJar(jar);
+
+        incremental(jar, dest);
+
+        assertEquals("kept", IO.slurp(objects));
+        assertEquals("kept", IO.slurp(orange));
+        assertEquals("Still green", IO.slurp(new File(dest, "widget.zip/green.txt")));
+        assertFalse(editor.exists());
+        assertFalse(new File(dest, "widget.zip/org").exists());
+    }
+
+    @Test
+    public void testZipResume() throws Exception {
+        final File dest = Files.tmpdir();
+        final File jar = Archive.archive()
+                .add("one.jar", Archive.archive().add(URI.class).add("META-INF/orange.txt", "Orange"))
+                .add(Editor.class)
+                .add(Objects.class)
+                .add("green.txt", "Green")
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        // Interrupt the run at the last entry
+        final Output interrupted = new DirectoryOutput(dest) {
+            @Override
+            public Entry entry(final String path) {
+                if (!path.equals("green.txt")) return super.entry(path);
+                return new Entry() {
+                    @Override
+                    public void asmify(final byte[] bytes, final Selector selector, final Cache cache, final Stats stats) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public void copy(final byte[] bytes) throws IOException {
+                        throw new IOException("No space left on device");
+                    }
+
+                    @Override
+                    public void copy(final InputStream in, final long crc, final long size) throws IOException {
+                        throw new IOException("No space left on device");
+                    }
+                };
+            }
+        };
+        try (final Workers workers = new Workers(1)) {
+            new ZipProcessor(workers).process(jar, interrupted);
+            fail("The run should have been interrupted");
+        } catch (final IOException e) {
+            assertEquals("No space left on device", e.getMessage());
+        }
+
+        assertTrue(new File(dest, Journal.NAME).isFile());
+        assertFalse(new File(dest, "green.txt").exists());
+
+        // Mark the outputs, completed entries must not be written again
+        final File objects = new File(dest, "java/util/Objects.class.asm");
+        final File orange = new File(dest, "one.jar/META-INF/orange.txt");
+        IO.copy(IO.read("kept"), objects);
+        IO.copy(IO.read("kept"), orange);
+
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).resume(true).process(jar, dest);
+        }
+
+        assertEquals("kept", IO.slurp(objects));
+        assertEquals("kept", IO.slurp(orange));
+        assertEquals("Green", IO.slurp(new File(dest, "green.txt")));
+        assertFalse(new File(dest, Journal.NAME).exists());
+
+        // Nothing but the outputs is left behind
+        final File full = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).process(jar, full);
+        }
+        assertEquals(contents(full).keySet(), contents(dest).keySet());
+    }
+
+    @Test
+    public void testZipCache() throws Exception {
+        final File cacheDir = Files.tmpdir();
+        final File jar = Archive.archive()
+                .add("one.jar", Archive.archive().add(URI.class))
+                .add(URI.class)
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final File first = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).cache(new Cache(cacheDir, 1024 * 1024 * 1024, false, "")).process(jar, first);
+        }
+
+        // Both copies of URI share one cached output
+        final List<File> cached = Files.collect(cacheDir).stream()
+                .filter(File::isFile)
+                .collect(Collectors.toList());
+        assertEquals(1, cached.size());
+        assertEquals(IO.slurp(new File(first, "java/net/URI.class.asm")), IO.slurp(cached.get(0)));
+
+        IO.copy(IO.read("cached"), cached.get(0));
+
+        final File second = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).cache(new Cache(cacheDir, 1024 * 1024 * 1024, true, "")).process(jar, second);
+        }
+
+        assertEquals("cached", IO.slurp(new File(second, "java/net/URI.class.asm")));
+        assertEquals("cached", IO.slurp(new File(second, "one.jar/java/net/URI.class.asm")));
+    }
+
+    @Test
+    public void testZipArchive() throws Exception {
+        final File jar = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(URI.class).add(Command.class).toJar())
+                .add("readme.txt", "hello")
+                .add(URI.class)
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final File dir = Files.tmpdir();
+        try (final Workers workers = new Workers(1)) {
+            new ZipProcessor(workers).process(jar, dir);
+        }
+
+        final File stored = new File(Files.tmpdir(), "stored.zip");
+        final File deflated = new File(Files.tmpdir(), "deflated.zip");
+        final File again = new File(Files.tmpdir(), "again.zip");
+
+        archive(jar, stored, 0);
+        archive(jar, deflated, 9);
+        archive(jar, again, 9);
+
+        assertEquals(contents(dir), entries(stored));
+        assertEquals(contents(dir), entries(deflated));
+        assertTrue(stored.length() > deflated.length());
+
+        // The same input gives the same archive, whichever worker finishes first
+        assertArrayEquals(IO.readBytes(deflated), IO.readBytes(again));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AsmifierCommand().cat(deflated, "lib/one.jar/java/net/URI.class.asm").write(out);
+        assertEquals(IO.slurp(new File(dir, "lib/one.jar/java/net/URI.class.asm")), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        // A failed run leaves no archive behind that would look complete
+        final File broken = Archive.archive()
+                .add(URI.class)
+                .add("org/example/Broken.class", "not a class")
+                .toJar();
+        final File failed = new File(Files.tmpdir(), "failed.zip");
+        try {
+            archive(broken, failed, 9);
+            fail("The broken class must fail the run");
+        } catch (final RuntimeException | IOException e) {
+            // expected
+        }
+        assertFalse(failed.exists());
+        assertEquals(0, failed.getParentFile().list().length);
+    }
+
+    @Test
+    public void testZipStream() throws Exception {
+        final File jar = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(URI.class).add(Command.class).toJar())
+                .add("readme.txt", "hello")
+                .add(URI.class)
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final File dir = Files.tmpdir();
+        try (final Workers workers = new Workers(1)) {
+            new ZipProcessor(workers).process(jar, dir);
+        }
+
+        // Without memory for the nested jar it is read as a stream rather than spooled
+        final File zip = new File(Files.tmpdir(), "streamed.zip");
+        try (final Workers workers = new Workers(4);
+             final InputStream in = IO.read(jar);
+             final Output output = new ArchiveOutput(IO.write(zip), -1, 2)) {
+            new ZipProcessor(workers).nestedMemory(0).spool(false).process(in, output);
+        }
+        assertEquals(contents(dir), entries(zip));
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (final Workers workers = new Workers(4);
+             final InputStream in = IO.read(jar);
+             final Output output = new NdjsonOutput(json, 2)) {
+            new ZipProcessor(workers).spool(false).process(in, output);
+        }
+
+        final String[] lines = new String(json.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("{\"path\":\"readme.txt\",\"base64\":\"aGVsbG8=\"}", lines[2]);
+        assertTrue(lines[3], lines[3].startsWith("{\"path\":\"java/net/URI.class.asm\",\"text\":\"package asm.java.net;\\nimport "));
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        final byte[] bytes = Bytecode.readClassFile(URI.class);
+        final String asmified = Asmifier.asmify(bytes);
+
+        final String text = Asmifier.asmify(bytes, Selector.ALL.format(Format.textifier));
+        assertTrue(text, text.startsWith("// class version"));
+        assertTrue(text, text.contains("public toString()Ljava/lang/String;"));
+        assertTrue(text, text.length() < asmified.length() / 2);
+
+        final String json = Asmifier.asmify(bytes, Selector.ALL.format(Format.json));
+        assertTrue(json, json.startsWith("{\"name\":\"java/net/URI\","));
+        assertTrue(json, json.contains("{\"name\":\"toString\",\"descriptor\":\"()Ljava/lang/String;\""));
+        assertTrue(json, json.contains("\"code\":["));
+        assertTrue(json, json.endsWith("}\n"));
+        assertEquals(1, json.split("\n").length);
+
+        // The commands reading a single class take it as well
+        final File tmpdir = Files.tmpdir();
+        Archive.archive().add(URI.class).toDir(tmpdir);
+        final File classFile = new File(tmpdir, "java/net/URI.class");
+        assertEquals(text, new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(null, null, null, false, false, false, Format.textifier)));
+        assertEquals(json, new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(null, null, null, false, false, false, Format.json)));
+
+        // The format is part of the key, output cached in one is not used for another
+        assertEquals(Selector.ALL.toString(), Selector.ALL.format(Format.asmifier).toString());
+        assertFalse(Selector.ALL.toString().equals(Selector.ALL.format(Format.json).toString()));
+
+        final File jar = Archive.archive().add("readme.txt", "hello").add(URI.class).toJar();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final Workers workers = new Workers(2);
+             final InputStream in = IO.read(jar);
+             final Output output = new NdjsonOutput(out, 2, Format.json)) {
+            new ZipProcessor(workers).selector(Selector.ALL.format(Format.json)).spool(false).process(in, output);
+        }
+
+        final List<String> lines = Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+        assertEquals(2, lines.size());
+        assertTrue(lines.contains("{\"path\":\"readme.txt\",\"base64\":\"aGVsbG8=\"}"));
+        assertTrue(lines.contains("{\"path\":\"java/net/URI.class.asm\",\"class\":" + json.trim() + "}"));
+    }
+
+    @Test
+    public void testZipLargeResource() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        final Random random = new Random(42);
+        while (text.length() < 3 * 1024 * 1024) {
+            text.append(Long.toString(random.nextLong(), 36)).append('\n');
+        }
+        final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Larger than what is read into memory, one stored and one deflated
+        final File jar = new File(Files.tmpdir(), "large.zip");
+        try (final ZipOutputStream out = new ZipOutputStream(IO.write(jar))) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            final ZipEntry stored = new ZipEntry("stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(bytes);
+            out.putNextEntry(new ZipEntry("deflated.txt"));
+            out.write(bytes);
+            out.putNextEntry(new ZipEntry("empty.txt"));
+        }
+
+        final File dir = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).process(jar, dir);
+        }
+        assertArrayEquals(bytes, IO.readBytes(new File(dir, "stored.txt")));
+        assertArrayEquals(bytes, IO.readBytes(new File(dir, "deflated.txt")));
+        assertFalse(new File(dir, "empty.txt").exists());
+
+        final File streamed = Files.tmpdir();
+        try (final Workers workers = new Workers(2);
+             final InputStream in = IO.read(jar)) {
+            new ZipProcessor(workers).process(in, streamed);
+        }
+        assertEquals(contents(dir), contents(streamed));
+
+        final File stored = new File(Files.tmpdir(), "stored.zip");
+        try (final Workers workers = new Workers(2);
+             final InputStream in = IO.read(jar);
+             final Output output = new ArchiveOutput(stored, 0, 2)) {
+            new ZipProcessor(workers).process(in, output);
+        }
+        assertEquals(contents(dir), entries(stored));
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (final Workers workers = new Workers(2);
+             final InputStream in = IO.read(jar);
+             final Output output = new NdjsonOutput(json, 2)) {
+            new ZipProcessor(workers).process(in, output);
+        }
+        final String encoded = Base64.getEncoder().encodeToString(bytes);
+        assertEquals("{\"path\":\"stored.txt\",\"base64\":\"" + encoded + "\"}\n" +
+                "{\"path\":\"deflated.txt\",\"base64\":\"" + encoded + "\"}\n", json.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testZipFilter() throws Exception {
+        final File jar = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(URI.class).add(Command.class).toJar())
+                .add("lib/two.jar", Archive.archive().add(Editor.class).toJar())
+                .add("META-INF/colors.properties", "orange=rare")
+                .add("readme.txt", "hello")
+                .add(URI.class)
+                .add(Objects.class)
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final File dest = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers)
+                    .entries(new Filter(Arrays.asList("java/**", "*.properties"), Arrays.asList("**/Objects.class")))
+                    .nested(new Filter(null, Arrays.asList("two.jar")))
+                    .process(jar, dest);
+        }
+
+        assertEquals(Arrays.asList(
+                "/META-INF/colors.properties",
+                "/java/net/URI.class.asm",
+                "/lib/one.jar/java/net/URI.class.asm"
+        ), new ArrayList<>(contents(dest).keySet()));
+    }
+
+    @Test
+    public void testZipStats() throws Exception {
+        final File jar = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(URI.class).add(Command.class).toJar())
+                .add("readme.txt", "hello")
+                .add(Objects.class)
+                .toJar(new File(Files.tmpdir(), "widget.zip"));
+
+        final Stats stats = new Stats(2);
+        final File dest = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).stats(stats).process(jar, dest);
+        }
+        stats.finish();
+
+        final String summary = stats.summary();
+        assertTrue(summary, summary.startsWith("3 classes and 1 resources"));
+        assertTrue(summary, summary.contains("lib/one.jar"));
+
+        final StringWriter json = new StringWriter();
+        stats.json(json);
+        assertTrue(json.toString(), json.toString().contains("\"classes\": 3,"));
+        assertTrue(json.toString(), json.toString().contains("{\"path\": \"lib/one.jar\", \"classes\": 2, \"resources\": 0,"));
+        assertTrue(json.toString(), json.toString().contains("\"path\": \"lib/one.jar/java/net/URI.class\""));
+
+        // Timing the conversion does not change the output
+        final File plain = Files.tmpdir();
+        try (final Workers workers = new Workers(1)) {
+            new ZipProcessor(workers).process(jar, plain);
+        }
+        assertEquals(contents(plain), contents(dest));
+    }
+
+    @Test
+    public void testDir() throws Exception {
+        final File tree = new File(Files.tmpdir(), "repo");
+        final File classes = Files.mkdirs(new File(tree, "target/classes/java/net"));
+        IO.copy(Bytecode.readClassFile(URI.class), new File(classes, "URI.class"));
+        IO.copy("not scanned".getBytes(StandardCharsets.UTF_8), new File(classes, "notes.txt"));
+
+        final File jar = Archive.archive()
+                .add(Command.class)
+                .add("readme.txt", "hello")
+                .toJar();
+        IO.copy(jar, new File(Files.mkdirs(new File(tree, "lib/one")), "one-1.0.jar"));
+
+        final File dest = Files.tmpdir();
+        new AsmifierCommand().dir(tree, new AsmifierCommand.Directory(dest), 4, new Size("128mb"),
+                new CacheOptions(null, new Size("1gb"), false),
+                new FilterOptions(null, null, null, null, null, null, null, false, false, false),
+                new StatsOptions(false, null, 10),
+                new OutputOptions(false, -1, false, Format.asmifier));
+
+        final Map<String, String> contents = contents(new File(dest, "repo"));
+        assertEquals(Arrays.asList(
+                "/lib/one/one-1.0.jar/org/tomitribe/crest/api/Command.class.asm",
+                "/lib/one/one-1.0.jar/readme.txt",
+                "/target/classes/java/net/URI.class.asm"), new ArrayList<>(contents.keySet()));
+        assertEquals(Asmifier.asmify(Bytecode.readClassFile(URI.class)), contents.get("/target/classes/java/net/URI.class.asm"));
+    }
+
+    @Test
+    public void testJdk() throws Exception {
+        final File dest = Files.tmpdir();
+        new AsmifierCommand().jdk(new AsmifierCommand.Directory(dest), new String[]{"java.datatransfer"}, null, 2,
+                new CacheOptions(null, new Size("1gb"), false),
+                new FilterOptions(null, null, null, null, null, null, null, false, false, false),
+                new StatsOptions(false, null, 10),
+                new OutputOptions(false, -1, false, Format.asmifier));
+
+        final File[] images = dest.listFiles();
+        assertEquals(1, images.length);
+        assertTrue(images[0].getName(), images[0].getName().startsWith("jdk"));
+        assertEquals(Collections.singletonList("java.datatransfer"), Arrays.asList(images[0].list()));
+
+        final File module = new File(images[0], "java.datatransfer");
+        assertTrue(new File(module, "module-info.class.asm").isFile());
+        assertEquals(Asmifier.asmify(Bytecode.readClassFile(DataFlavor.class)),
+                IO.slurp(new File(module, "java/awt/datatransfer/DataFlavor.class.asm")));
+    }
+
+    @Test
+    public void testJmod() throws Exception {
+        final File jar = Archive.archive()
+                .add("readme.txt", "hello")
+                .add(URI.class)
+                .toJar();
+
+        // A jmod is a zip archive behind a four byte header
+        final File jmod = new File(Files.tmpdir(), "colors.jmod");
+        try (final OutputStream out = IO.write(jmod)) {
+            out.write(new byte[]{'J', 'M', 1, 0});
+            IO.copy(jar, out);
+        }
+
+        final File dir = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).process(jmod, dir);
+        }
+
+        final File streamed = Files.tmpdir();
+        try (final Workers workers = new Workers(2);
+             final InputStream in = IO.read(jmod)) {
+            new ZipProcessor(workers).process(in, streamed);
+        }
+
+        assertEquals(Arrays.asList("/java/net/URI.class.asm", "/readme.txt"), new ArrayList<>(contents(dir).keySet()));
+        assertEquals(contents(dir), contents(streamed));
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        final File classes = Files.tmpdir();
+        final File net = Files.mkdirs(new File(classes, "java/net"));
+        IO.copy(Bytecode.readClassFile(URI.class), new File(net, "URI.class"));
+        IO.copy(Bytecode.readClassFile(URI.class), new File(net, "URL.class"));
+
+        final File dest = Files.tmpdir();
+        try (final Watcher watcher = new Watcher(classes, dest, Selector.ALL, 2, 50)) {
+            assertEquals(2, watcher.scan().getConverted());
+            assertEquals(Asmifier.asmify(Bytecode.readClassFile(URI.class)), IO.slurp(new File(dest, "java/net/URI.class.asm")));
+
+            // Recompiled, removed and new classes, including some in a new directory
+            IO.copy(Bytecode.readClassFile(Objects.class), new File(net, "URI.class"));
+            assertTrue(new File(net, "URL.class").delete());
+            IO.copy(Bytecode.readClassFile(Editor.class), new File(Files.mkdirs(new File(classes, "org/example")), "Editor.class"));
+            IO.copy("not a class".getBytes(StandardCharsets.UTF_8), new File(net, "notes.txt"));
+
+            final Watcher.Changes changes = watcher.poll();
+            assertEquals(2, changes.getConverted());
+            assertEquals(1, changes.getRemoved());
+            assertEquals(Collections.emptyList(), changes.getErrors());
+        }
+
+        final Map<String, String> contents = contents(dest);
+        assertEquals(Arrays.asList("/java/net/URI.class.asm", "/org/example/Editor.class.asm"), new ArrayList<>(contents.keySet()));
+        assertEquals(Asmifier.asmify(Bytecode.readClassFile(Objects.class)), contents.get("/java/net/URI.class.asm"));
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        final File before = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(Command.class).add(IO.class).toJar())
+                .add(URI.class)
+                .add(Objects.class)
+                .toJar();
+
+        // The same names with other classes behind them
+        final File after = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(Command.class).add("org/tomitribe/util/IO.class", Bytecode.readClassFile(Join.class)).toJar())
+                .add("java/net/URI.class", Bytecode.readClassFile(Editor.class))
+                .add(Objects.class)
+                .add("readme.txt", "hello")
+                .toJar();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AsmifierCommand().diff(before, after, 3, new FilterOptions(null, null, null, null, null, null, null, false, false, false)).write(out);
+        final String diff = out.toString(StandardCharsets.UTF_8.name());
+
+        assertTrue(diff, diff.startsWith("--- a/java/net/URI.class.asm\n+++ b/java/net/URI.class.asm\n@@ -1,"));
+        assertTrue(diff, diff.contains("--- a/lib/one.jar/org/tomitribe/util/IO.class.asm\n+++ b/lib/one.jar/org/tomitribe/util/IO.class.asm\n"));
+        assertTrue(diff, diff.endsWith("Only in b: readme.txt\n"));
+        assertFalse(diff, diff.contains("Objects"));
+        assertFalse(diff, diff.contains("Command.class"));
+
+        final StringWriter hunks = new StringWriter();
+        UnifiedDiff.write(hunks, "a/x", "b/x",
+                Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12"),
+                Arrays.asList("1", "two", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13"), 2);
+        assertEquals("--- a/x\n+++ b/x\n" +
+                "@@ -1,4 +1,4 @@\n 1\n-2\n+two\n 3\n 4\n" +
+                "@@ -11,2 +11,3 @@\n 11\n 12\n+13\n", hunks.toString());
+    }
+
+    @Test
+    public void testSelector() throws Exception {
+        final File tmpdir = Files.tmpdir();
+        Archive.archive().add(Command.class).toDir(tmpdir);
+        final File classFile = new File(tmpdir, "org/tomitribe/crest/api/Command.class");
+
+        final String usage = new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(null, null, new String[]{"usage"}, false, false, false, Format.asmifier));
+        assertTrue(usage, usage.contains("\"usage\", \"()Ljava/lang/String;\""));
+        assertFalse(usage, usage.contains("\"value\", \"()"));
+        assertFalse(usage, usage.contains("\"interceptedBy\""));
+
+        final String described = new AsmifierCommand().asmifyClass(classFile,
+                new SelectorOptions(new String[]{"org.tomitribe.crest.api.Comm*"}, null, new String[]{"interceptedBy()[Ljava/lang/Class;", "val*"}, false, false, false,
+                        Format.asmifier));
+        assertTrue(described, described.contains("\"interceptedBy\""));
+        assertTrue(described, described.contains("\"value\", \"()"));
+        assertFalse(described, described.contains("\"usage\""));
+
+        assertEquals(null, new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(new String[]{"Editor"}, null, null, false, false, false, Format.asmifier)));
+
+        // Unselected classes are skipped altogether
+        final File jar = Archive.archive().add(Command.class).add(Editor.class).add(URI.class).toJar();
+        final File dest = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers)
+                    .selector(new Selector(Arrays.asList("Editor", "java.net.*"), null, Arrays.asList("<init>")))
+                    .process(jar, dest);
+        }
+        final Map<String, String> contents = contents(dest);
+        assertEquals(Arrays.asList("/java/net/URI.class.asm", "/org/tomitribe/crest/api/Editor.class.asm"), new ArrayList<>(contents.keySet()));
+        assertTrue(contents.get("/java/net/URI.class.asm").contains("visitMethod(ACC_PUBLIC, \"<init>\""));
+        assertFalse(contents.get("/java/net/URI.class.asm").contains("visitMethod(ACC_PUBLIC, \"toString\""));
+    }
+
+    @Test
+    public void testStructureOnly() throws Exception {
+        final File tmpdir = Files.tmpdir();
+        Archive.archive().add(URI.class).toDir(tmpdir);
+        final File classFile = new File(tmpdir, "java/net/URI.class");
+
+        final String structure = new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(null, null, null, true, false, false, Format.asmifier));
+        assertTrue(structure, structure.contains("visitMethod(ACC_PUBLIC, \"toString\""));
+        assertTrue(structure, structure.contains("visitField("));
+        assertFalse(structure, structure.contains("visitInsn("));
+        assertFalse(structure, structure.contains("visitMaxs("));
+
+        final String code = new AsmifierCommand().asmifyClass(classFile);
+        assertTrue(code, code.contains("visitInsn("));
+        assertTrue(code, code.contains("visitFrame("));
+        assertFalse(code, code.contains("visitLineNumber("));
+
+        final String frameless = new AsmifierCommand().asmifyClass(classFile, new SelectorOptions(null, null, null, false, true, false, Format.asmifier));
+        assertTrue(frameless, frameless.contains("visitInsn("));
+        assertFalse(frameless, frameless.contains("visitFrame("));
+
+        final String debug = Asmifier.asmify(Bytecode.readClassFile(URI.class), 0);
+        assertTrue(debug, debug.contains("visitLineNumber("));
+    }
+
+    @Test
+    public void testClassPath() throws Exception {
+        final File lib = Files.tmpdir();
+        final File first = Archive.archive().add(URI.class).toJar(new File(lib, "a.jar"));
+        Archive.archive().add(URI.class).add(IO.class).toJar(new File(lib, "b.jar"));
+        final File classes = Files.tmpdir();
+        Archive.archive().add(Command.class).toDir(classes);
+
+        final List<File> elements = ClassPath.parse(classes.getAbsolutePath() + File.pathSeparator + lib.getAbsolutePath() + "/*");
+        assertEquals(Arrays.asList(classes, first, new File(lib, "b.jar")), elements);
+
+        final File index = Files.tmpdir();
+        final ClassPath classPath = new ClassPath(elements, index);
+        assertArrayEquals(Bytecode.readClassFile(URI.class), classPath.read("java.net.URI"));
+        assertArrayEquals(Bytecode.readClassFile(IO.class), classPath.read("org/tomitribe/util/IO"));
+        assertArrayEquals(Bytecode.readClassFile(Command.class), classPath.read("org/tomitribe/crest/api/Command.class"));
+        assertEquals(null, classPath.read("org.example.Missing"));
+        assertEquals(1, index.listFiles().length);
+
+        // A jar changed since the index was written is listed again
+        Archive.archive().add(IO.class).toJar(first);
+        assertTrue(first.setLastModified(first.lastModified() + 2000));
+        final ClassPath changed = new ClassPath(elements, index);
+        assertArrayEquals(Bytecode.readClassFile(IO.class), changed.read("org.tomitribe.util.IO"));
+        assertArrayEquals(Bytecode.readClassFile(URI.class), changed.read("java.net.URI"));
+    }
+
+    @Test
+    public void testHex() throws Exception {
+        final File jar = Archive.archive().add(URI.class).toJar();
+        final byte[] bytes = Bytecode.readClassFile(URI.class);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AsmifierCommand().hex(jar, "java/net/URI.class").write(out);
+        final String hex = out.toString(StandardCharsets.UTF_8.name());
+        final String[] rows = hex.split("\n");
+
+        assertEquals((bytes.length + 15) / 16, rows.length);
+        assertTrue(rows[0], rows[0].startsWith("00000000  ca fe ba be "));
+        assertTrue(rows[0], rows[0].contains("  0 magic, 4 minor_version, 6 major_version, 8 constant_pool_count, a #1 "));
+        assertTrue(hex, hex.contains(" method toString()Ljava/lang/String;"));
+        assertTrue(hex, hex.contains(" field string:Ljava/lang/String;"));
+        assertTrue(hex, hex.contains(" attribute Code, "));
+        assertTrue(rows[rows.length - 1], rows[rows.length - 1].endsWith(" end"));
+
+        // A class cut short is marked where its last attribute runs past the end
+        final File cut = new File(Files.tmpdir(), "URI.class");
+        IO.copy(Arrays.copyOf(bytes, bytes.length - 100), cut);
+        out.reset();
+        new AsmifierCommand().hex(cut, null).write(out);
+        final String broken = out.toString(StandardCharsets.UTF_8.name());
+        assertTrue(broken, broken.contains(" method toString()Ljava/lang/String;"));
+        assertTrue(broken, broken.contains(" unreadable"));
+        assertFalse(broken, broken.contains(" end\n"));
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        final File jar = Archive.archive()
+                .add("lib/one.jar", Archive.archive().add(IO.class).toJar())
+                .add(URI.class)
+                .add(Command.class)
+                .toJar();
+
+        final File dest = Files.tmpdir();
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).index(true).incremental(true).process(jar, dest);
+        }
+        assertTrue(new File(dest, Index.NAME).isFile());
+
+        // Classes are indexed while asmified, and those taken from the cache on their own
+        final File cacheDir = Files.tmpdir();
+        for (int i = 0; i < 2; i++) {
+            final File cached = Files.tmpdir();
+            try (final Workers workers = new Workers(2)) {
+                new ZipProcessor(workers).index(true).cache(new Cache(cacheDir, 1024 * 1024 * 1024, false, "")).process(jar, cached);
+            }
+            assertArrayEquals(IO.readBytes(new File(dest, Index.NAME)), IO.readBytes(new File(cached, Index.NAME)));
+        }
+
+        final String types = search(dest, new String[]{"java/net/URL"}, null, null, null, null);
+        assertTrue(types, types.contains("java/net/URI.class#"));
+        assertTrue(types, types.contains("lib/one.jar/org/tomitribe/util/IO.class#"));
+        assertFalse(types, types.contains("Command.class"));
+
+        final String calls = search(dest, null, new String[]{"java/lang/String.indexOf"}, null, null, null);
+        assertTrue(calls, calls.contains("java/net/URI.class#"));
+        assertTrue(calls, calls.contains(" java/lang/String.indexOf(I)I\n"));
+        assertFalse(calls, calls.contains("IO.class"));
+
+        final String strings = search(dest, null, null, null, new String[]{"Relative path*"}, null);
+        assertTrue(strings, strings.startsWith("java/net/URI.class#"));
+        assertTrue(strings, strings.endsWith(" \"Relative path in absolute URI\"\n"));
+
+        final String opcodes = search(dest, null, null, null, null, new String[]{"athr?w"});
+        assertTrue(opcodes, opcodes.contains("java/net/URI.class#"));
+        assertTrue(opcodes, opcodes.contains("lib/one.jar/org/tomitribe/util/IO.class#"));
+
+        // Class level terms have no member
+        final String annotations = search(new File(dest, Index.NAME), new String[]{"Retention"}, null, null, null, null);
+        assertEquals("org/tomitribe/crest/api/Command.class java/lang/annotation/Retention\n", annotations);
+
+        // Incremental runs drop the classes that are gone
+        final File smaller = Archive.archive().add(URI.class).toJar(jar);
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).index(true).incremental(true).process(smaller, dest);
+        }
+        assertEquals("", search(dest, new String[]{"Retention"}, null, null, null, null));
+        assertEquals(types.replaceAll("lib/one.jar.*\n", ""), search(dest, new String[]{"java/net/URL"}, null, null, null, null));
+    }
+
+    private static String search(final File index, final String[] types, final String[] methods, final String[] fields,
+                                 final String[] strings, final String[] opcodes) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AsmifierCommand().search(index, types, methods, fields, strings, opcodes).write(out);
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    @Test
+    public void testDaemon() throws Exception {
+        final File cwd = Files.tmpdir();
+        final byte[] bytes = Bytecode.readClassFile(URI.class);
+        IO.copy(bytes, new File(cwd, "URI.class"));
+
+        final File file = new File(Files.tmpdir(), "daemon");
+        final Daemon daemon = new Daemon(new org.tomitribe.crest.Main(), file);
+        final Thread thread = new Thread(() -> {
+            try {
+                daemon.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        thread.start();
+
+        try {
+            assertTrue(file.exists());
+
+            // Relative paths are resolved against the directory of the client
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ByteArrayOutputStream err = new ByteArrayOutputStream();
+            final Integer status = Daemon.forward(file, cwd.getAbsolutePath(), new String[]{"class", "URI.class"}, out, err);
+            assertEquals(Integer.valueOf(0), status);
+            assertEquals(Asmifier.asmify(bytes), out.toString(StandardCharsets.UTF_8.name()));
+
+            // Failures come back as an exit code and the message
+            out.reset();
+            final Integer missing = Daemon.forward(file, cwd.getAbsolutePath(), new String[]{"cat", "missing.zip", "x"}, out, err);
+            assertEquals(Integer.valueOf(1), missing);
+            assertTrue(err.toString(StandardCharsets.UTF_8.name()).contains("missing.zip"));
+        } finally {
+            assertTrue(Daemon.stop(file));
+            thread.join(10000);
+        }
+
+        assertFalse(file.exists());
+        assertEquals(null, Daemon.forward(file, cwd.getAbsolutePath(), new String[]{"class", "URI.class"}, System.out, System.err));
+
+        // A stale file naming a port taken by something that never answers
+        try (final ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            IO.copy(IO.read(silent.getLocalPort() + " token"), file);
+            assertEquals(null, Daemon.forward(file, cwd.getAbsolutePath(), new String[]{"class", "URI.class"}, System.out, System.err));
+        }
+    }
+
+    private static void archive(final File jar, final File file, final int level) throws IOException {
+        try (final Workers workers = new Workers(4);
+             final Output output = new ArchiveOutput(file, level, 2)) {
+            new ZipProcessor(workers).process(jar, output);
+        }
+    }
+
+    private static Map<String, String> entries(final File archive) throws IOException {
+        final Map<String, String> entries = new TreeMap<>();
+        try (final CentralDirectory directory = CentralDirectory.open(archive)) {
+            for (final CentralDirectory.Entry entry : directory.entries()) {
+                entries.put("/" + entry.getName(), new String(directory.read(entry), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private static void incremental(final File jar, final File dest) throws IOException {
+        try (final Workers workers = new Workers(2)) {
+            new ZipProcessor(workers).incremental(true).process(jar, new File(dest, jar.getName()));
+        }
+    }
+
+    private static Map<String, String> contents(final File dir) throws IOException {
+        final Map<String, String> contents = new TreeMap<>();
+        for (final File file : Files.collect(dir)) {
+            if (!file.isFile()) continue;
+            contents.put(file.getAbsolutePath().substring(dir.getAbsolutePath().length()), IO.slurp(file));
+        }
+        return contents;
+    }
+
     @Test
     public void testClass() throws Exception {
         final Archive archive = Archive.archive()
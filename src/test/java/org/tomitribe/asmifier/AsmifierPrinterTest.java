@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.util.ASMifier;
+import org.objectweb.asm.util.TraceClassVisitor;
+import org.tomitribe.crest.api.Command;
+import org.tomitribe.util.IO;
+
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class AsmifierPrinterTest {
+
+    /**
+     * The output must be exactly that of ASMifier, whatever the class and
+     * however it is read, and stay so as the printers are reused
+     */
+    @Test
+    public void sameAsASMifier() throws Exception {
+        final Class<?>[] classes = {
+                AsmifierCommand.class, // annotated parameters
+                Command.class, // annotation defaults
+                Stats.Phase.class, // enum
+                ZipProcessor.class, // lambdas and inner classes
+                URI.class, // switches and exceptions
+                HashMap.class,
+                ConcurrentHashMap.class,
+        };
+
+        for (final int flags : new int[]{ClassReader.SKIP_DEBUG, 0, ClassReader.SKIP_FRAMES, ClassReader.SKIP_CODE}) {
+            for (final Class<?> clazz : classes) {
+                final byte[] bytes = Bytecode.readClassFile(clazz);
+                assertEquals(clazz.getName(), asmifier(bytes, flags), Asmifier.asmify(bytes, flags));
+            }
+        }
+
+        final byte[] bytes = Bytecode.readClassFile(URI.class);
+        final Selector selector = new Selector(null, null, Arrays.asList("toString", "<init>"), 0);
+        final StringWriter writer = new StringWriter();
+        new ClassReader(bytes).accept(selector.filter(new TraceClassVisitor(null, new ASMifier(), new PrintWriter(writer))), 0);
+        assertEquals(writer.toString(), Asmifier.asmify(bytes, selector));
+    }
+
+    @Test
+    public void module() throws Exception {
+        final byte[] bytes;
+        try (final InputStream in = Object.class.getResourceAsStream("/module-info.class")) {
+            assertNotNull(in);
+            bytes = IO.readBytes(in);
+        }
+        assertEquals(asmifier(bytes, 0), Asmifier.asmify(bytes, 0));
+    }
+
+    private static String asmifier(final byte[] bytes, final int flags) {
+        final StringWriter writer = new StringWriter();
+        new ClassReader(bytes).accept(new TraceClassVisitor(null, new ASMifier(), new PrintWriter(writer)), flags);
+        return writer.toString();
+    }
+}
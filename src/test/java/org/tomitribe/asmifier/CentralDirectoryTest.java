@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tomitribe.asmifier;
+
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CentralDirectoryTest {
+
+    @Test
+    public void read() throws Exception {
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("META-INF/", new byte[0]);
+        contents.put("org/tomitribe/util/IO.class", Bytecode.readClassFile(IO.class));
+        contents.put("stored.txt", "Orange is rare and beautiful".getBytes());
+        contents.put("deflated.txt", "Green is abundant and still beautiful".getBytes());
+
+        final File zip = new File(Files.tmpdir(), "test.jar");
+
+        // A prefix before the zip data, as found in jmod files
+        try (final FileOutputStream out = new FileOutputStream(zip)) {
+            out.write(new byte[]{'J', 'M', 1, 0});
+
+            final ZipOutputStream zipOut = new ZipOutputStream(out);
+            for (final Map.Entry<String, byte[]> content : contents.entrySet()) {
+                final ZipEntry entry = new ZipEntry(content.getKey());
+                if (content.getKey().startsWith("stored")) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(content.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.getValue().length);
+                    entry.setCrc(crc.getValue());
+                }
+                zipOut.putNextEntry(entry);
+                zipOut.write(content.getValue());
+            }
+            zipOut.finish();
+        }
+
+        try (final CentralDirectory directory = CentralDirectory.open(zip)) {
+            assertEquals(contents.size(), directory.entries().size());
+
+            for (final CentralDirectory.Entry entry : directory.entries()) {
+                final byte[] expected = contents.get(entry.getName());
+                assertEquals(expected.length, entry.getSize());
+                assertArrayEquals(expected, directory.read(entry));
+
+                try (final InputStream in = directory.open(entry)) {
+                    assertArrayEquals(expected, IO.readBytes(in));
+                }
+            }
+
+            assertTrue(directory.entries().get(0).isDirectory());
+        }
+    }
+
+    @Test
+    public void readZip64() throws Exception {
+        final File zip = new File(Files.tmpdir(), "test.jmod");
+
+        // More entries than the end record can count, behind a prefix
+        try (final FileOutputStream out = new FileOutputStream(zip)) {
+            out.write(new byte[]{'J', 'M', 1, 0});
+
+            final ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(out));
+            for (int i = 0; i < 0x10000; i++) {
+                zipOut.putNextEntry(new ZipEntry("e/" + i));
+                zipOut.write(Integer.toString(i).getBytes());
+            }
+            zipOut.finish();
+            zipOut.flush();
+        }
+
+        try (final CentralDirectory directory = CentralDirectory.open(zip)) {
+            assertEquals(0x10000, directory.entries().size());
+
+            final CentralDirectory.Entry last = directory.entries().get(0xFFFF);
+            assertEquals("e/65535", last.getName());
+            assertArrayEquals("65535".getBytes(), directory.read(last));
+        }
+    }
+
+    @Test
+    public void transferTo() throws Exception {
+        final byte[] content = "Orange is rare and beautiful".getBytes(StandardCharsets.UTF_8);
+        final File zip = new File(Files.tmpdir(), "test.jar");
+
+        try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            final ZipEntry stored = new ZipEntry("stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(content);
+
+            out.putNextEntry(new ZipEntry("deflated.txt"));
+            out.write(content);
+        }
+
+        try (final CentralDirectory directory = CentralDirectory.open(zip)) {
+            for (final CentralDirectory.Entry entry : directory.entries()) {
+                final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+                directory.transferTo(entry, Channels.newChannel(copied));
+                assertArrayEquals(entry.getName(), content, copied.toByteArray());
+            }
+        }
+
+        // Damage the stored bytes, the copy is made but must be reported
+        final byte[] bytes = IO.readBytes(zip);
+        final int at = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("Orange");
+        bytes[at] = 'o';
+        IO.copy(bytes, zip);
+
+        try (final CentralDirectory directory = CentralDirectory.open(zip)) {
+            directory.transferTo(directory.entries().get(0), Channels.newChannel(new ByteArrayOutputStream()));
+            fail("The CRC of the damaged entry was not checked");
+        } catch (final ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid CRC"));
+        }
+    }
+}